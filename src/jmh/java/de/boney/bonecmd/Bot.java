@@ -0,0 +1,69 @@
+package de.boney.bonecmd;
+
+import org.javacord.api.DiscordApi;
+import org.javacord.api.entity.channel.ServerTextChannel;
+import org.javacord.api.entity.permission.PermissionType;
+import org.javacord.api.entity.user.User;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fake server with a handful of members and a typical set of commands registered in a registry of its own,
+ * shared by all benchmarks.
+ */
+final class Bot {
+    static final Bot INSTANCE = new Bot();
+
+    final Fakes.Guild guild = new Fakes.Guild(1000);
+    final LongAdder sent = new LongAdder();
+    final CommandRegistry registry = new CommandRegistry();
+    final DiscordApi api = Fakes.api(new Fakes.DirectExecutor());
+    final ServerTextChannel channel = guild.addChannel(2000, sent);
+    final User member;
+    final User moderator;
+
+    private Bot() {
+        guild.ownerId = 1;
+        guild.addMember(1, "owner");
+        moderator = guild.addMember(2, "moderator", PermissionType.KICK_MEMBERS, PermissionType.BAN_MEMBERS);
+        member = guild.addMember(3, "member");
+        for (int i = 10; i < 200; i++) guild.addMember(i, "user" + i);
+
+        guild.api = api;
+        registry.bind(api);
+        registry.setDefaultPrefix("!");
+        registry.registerCommand(new Command("ping").tip("Pong").runs(args -> args.reply("pong")));
+        registry.registerCommand(new Command("add").tip("Adds two numbers")
+                .arg(Command.ArgType.LONG, "a").arg(Command.ArgType.LONG, "b")
+                .runs(args -> args.reply(String.valueOf(args.getLong("a").get() + args.getLong("b").get()))));
+        registry.registerCommand(new Command("scale").tip("Scales a number")
+                .arg(Command.ArgType.DOUBLE, "x").arg(Command.ArgType.DOUBLE, "factor", true)
+                .runs(args -> args.reply(String.valueOf(args.getDouble("x").get() * args.getDouble("factor").orElse(2.0)))));
+        registry.registerCommand(new Command("say").tip("Repeats you").raw()
+                .runs(args -> args.reply(args.getString("raw").orElse(""))));
+        registry.registerCommand(new Command("whois").tip("Shows a member")
+                .arg(Command.ArgType.USER, "who").arg(Command.ArgType.STRING, "note", true)
+                .runs(args -> args.reply(args.getUser("who").map(User::getName).orElse("nobody"))));
+        registry.registerCommand(new Command("kick").tip("Kicks a member")
+                .arg(Command.ArgType.USER, "who").arg(Command.ArgType.STRING, "reason", true)
+                .restrictExternal(PermissionType.KICK_MEMBERS)
+                .runs(args -> args.reply("kicked")));
+        registry.registerCommand(new Command("shutdown").tip("Stops the bot")
+                .restrictSpecial(Command.SpecialRestriction.BOT_OWNER)
+                .runs(args -> args.reply("bye")));
+        for (int i = 0; i < 40; i++) {
+            registry.registerCommand(new Command("filler" + i).tip("Filler command " + i).arg(Command.ArgType.STRING, "s", true)
+                    .runs(args -> args.reply("ok")));
+        }
+
+        Map<String, String> macros = new HashMap<>();
+        macros.put("greet", "!say hello $1;!ping");
+        registry.setMacroTextSupplier((server, name) -> macros.get(name));
+    }
+
+    void handle(String content, User user) {
+        registry.handleMessage(content, api, guild.server, user, channel);
+    }
+}
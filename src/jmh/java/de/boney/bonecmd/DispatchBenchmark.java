@@ -0,0 +1,35 @@
+package de.boney.bonecmd;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A whole message through {@link CommandRegistry#handleMessage}, with the task run on the calling thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+    @Param({"just chatting, not a command", "!ping", "!add 12 30", "!whois member", "!kick <@!3> spam", "!nosuchcommand", "!greet world"})
+    public String message;
+
+    private final Bot bot = Bot.INSTANCE;
+
+    @Benchmark
+    public void handleMessage() {
+        bot.handle(message, bot.moderator);
+    }
+}
@@ -0,0 +1,203 @@
+package de.boney.bonecmd;
+
+import org.javacord.api.DiscordApi;
+import org.javacord.api.entity.channel.ServerTextChannel;
+import org.javacord.api.entity.permission.PermissionType;
+import org.javacord.api.entity.server.Server;
+import org.javacord.api.entity.user.User;
+import org.javacord.api.util.concurrent.ThreadPool;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-memory stand-ins for the Javacord entities the dispatch path touches, so benchmarks run without a connection.
+ * Everything runs on the calling thread and nothing is sent anywhere.
+ */
+final class Fakes {
+    private Fakes() {
+    }
+
+    /**
+     * Runs every task on the submitting thread, so a dispatch is complete when handleMessage returns.
+     */
+    static final class DirectExecutor extends AbstractExecutorService {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return false;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return false;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return true;
+        }
+    }
+
+    static final class Guild {
+        final Server server;
+        final Map<Long, User> members = new HashMap<>();
+        final Map<Long, ServerTextChannel> channels = new HashMap<>();
+        final Map<Long, EnumSet<PermissionType>> permissions = new HashMap<>();
+        long ownerId;
+        DiscordApi api;
+
+        Guild(long id) {
+            server = proxy(Server.class, (method, args) -> {
+                switch (method) {
+                    case "getId":
+                        return id;
+                    case "getIdAsString":
+                        return String.valueOf(id);
+                    case "getApi":
+                        return api;
+                    case "getMemberById":
+                        return id(args[0]).map(members::get);
+                    case "getChannelById":
+                    case "getTextChannelById":
+                        return id(args[0]).map(channels::get);
+                    case "getMembers":
+                        return new ArrayList<>(members.values());
+                    case "getMembersByNameIgnoreCase": {
+                        List<User> found = new ArrayList<>();
+                        for (User user : members.values()) {
+                            if (user.getName().equalsIgnoreCase((String) args[0])) found.add(user);
+                        }
+                        return found;
+                    }
+                    case "isMember":
+                        return members.containsValue(args[0]);
+                    case "getOwner":
+                        return members.get(ownerId);
+                    case "getAllowedPermissions": {
+                        Collection<PermissionType> allowed = permissions.get(((User) args[0]).getId());
+                        return allowed == null ? Collections.emptySet() : allowed;
+                    }
+                    default:
+                        throw new UnsupportedOperationException("Server." + method);
+                }
+            });
+        }
+
+        User addMember(long id, String name, PermissionType... allowed) {
+            User user = user(id, name);
+            members.put(id, user);
+            permissions.put(id, allowed.length == 0 ? EnumSet.noneOf(PermissionType.class) : EnumSet.of(allowed[0], allowed));
+            return user;
+        }
+
+        ServerTextChannel addChannel(long id, LongAdder sent) {
+            ServerTextChannel channel = channel(id, sent);
+            channels.put(id, channel);
+            return channel;
+        }
+    }
+
+    static DiscordApi api(ExecutorService executor) {
+        ThreadPool pool = proxy(ThreadPool.class, (method, args) -> {
+            if (method.equals("getExecutorService")) return executor;
+            throw new UnsupportedOperationException("ThreadPool." + method);
+        });
+        return proxy(DiscordApi.class, (method, args) -> {
+            if (method.equals("getThreadPool")) return pool;
+            if (method.startsWith("add") && method.endsWith("Listener")) return null;
+            throw new UnsupportedOperationException("DiscordApi." + method);
+        });
+    }
+
+    static User user(long id, String name) {
+        return proxy(User.class, (method, args) -> {
+            switch (method) {
+                case "getId":
+                    return id;
+                case "getIdAsString":
+                    return String.valueOf(id);
+                case "getName":
+                    return name;
+                case "getNickname":
+                    return Optional.empty();
+                case "isBot":
+                case "isBotOwner":
+                    return false;
+                default:
+                    throw new UnsupportedOperationException("User." + method);
+            }
+        });
+    }
+
+    /**
+     * @param sent counts the messages "sent" to the channel
+     */
+    static ServerTextChannel channel(long id, LongAdder sent) {
+        return proxy(ServerTextChannel.class, (method, args) -> {
+            switch (method) {
+                case "getId":
+                    return id;
+                case "sendMessage":
+                    sent.increment();
+                    return CompletableFuture.completedFuture(null);
+                default:
+                    throw new UnsupportedOperationException("ServerTextChannel." + method);
+            }
+        });
+    }
+
+    private static Optional<Long> id(Object id) {
+        if (id instanceof Long) return Optional.of((Long) id);
+        try {
+            return Optional.of(Long.parseLong((String) id));
+        } catch (NumberFormatException e) {
+            return Optional.empty();
+        }
+    }
+
+    private interface Handler {
+        Object invoke(String method, Object[] args);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        return (T) Proxy.newProxyInstance(Fakes.class.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return type.getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+                default:
+                    return handler.invoke(method.getName(), args);
+            }
+        });
+    }
+}
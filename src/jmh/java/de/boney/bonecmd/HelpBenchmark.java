@@ -0,0 +1,33 @@
+package de.boney.bonecmd;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HelpBenchmark {
+    private final Bot bot = Bot.INSTANCE;
+
+    @Benchmark
+    public String tooltipSummary() {
+        return bot.registry.getTooltipSummary(bot.guild.server, bot.member);
+    }
+
+    @Benchmark
+    public String help() {
+        return bot.registry.getHelp("whois", bot.guild.server, bot.member);
+    }
+}
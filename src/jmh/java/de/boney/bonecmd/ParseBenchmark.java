@@ -0,0 +1,73 @@
+package de.boney.bonecmd;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Argument parsing across parameter shapes. Entity arguments are bound but not looked up.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+    @Param({"longs", "mixed", "quoted", "optionalSkip", "raw", "error"})
+    public String shape;
+
+    private final Bot bot = Bot.INSTANCE;
+    private Command command;
+    private String line;
+    private int nameEnd;
+
+    @Setup
+    public void setUp() {
+        switch (shape) {
+            case "longs":
+                command = new Command("sum").arg(Command.ArgType.LONG, "a").arg(Command.ArgType.LONG, "b").arg(Command.ArgType.LONG, "c");
+                line = "!sum 1 -22 9223372036854775807";
+                break;
+            case "mixed":
+                command = new Command("mix").arg(Command.ArgType.LONG, "n").arg(Command.ArgType.DOUBLE, "x")
+                        .arg(Command.ArgType.USER, "who").arg(Command.ArgType.CHANNEL, "where").arg(Command.ArgType.STRING, "s");
+                line = "!mix 42 3.25 <@!3> <#2000> word";
+                break;
+            case "quoted":
+                command = new Command("note").arg(Command.ArgType.USER, "who").arg(Command.ArgType.STRING, "text");
+                line = "!note member \"some text with a few words in quotes\"";
+                break;
+            case "optionalSkip":
+                command = new Command("opt").arg(Command.ArgType.LONG, "n", true).arg(Command.ArgType.DOUBLE, "x", true)
+                        .arg(Command.ArgType.STRING, "s");
+                line = "!opt hello";
+                break;
+            case "raw":
+                command = new Command("say").raw();
+                line = "!say everything after the name is one argument";
+                break;
+            default:
+                command = new Command("add").arg(Command.ArgType.LONG, "a").arg(Command.ArgType.LONG, "b");
+                line = "!add 1 two";
+        }
+        command.compile();
+        nameEnd = line.indexOf(' ');
+    }
+
+    @Benchmark
+    public Arguments getArguments() {
+        String[] err = new String[]{""};
+        return command.getArguments(bot.registry.shard(bot.api), bot.guild.server, bot.channel, bot.member, line, nameEnd, err);
+    }
+}
@@ -0,0 +1,54 @@
+package de.boney.bonecmd;
+
+import org.javacord.api.entity.permission.PermissionType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PermissionBenchmark {
+    /**
+     * Whether the user's permissions are cached, or dropped before every check.
+     */
+    @Param({"true", "false"})
+    public boolean cached;
+
+    private final Bot bot = Bot.INSTANCE;
+    private Command open;
+    private Command restricted;
+    private PermissionCache permissions;
+
+    @Setup
+    public void setUp() {
+        permissions = bot.registry.shard(bot.api).permissions;
+        open = new Command("open");
+        restricted = new Command("restricted").restrictExternal(PermissionType.KICK_MEMBERS)
+                .restrictSpecial(Command.SpecialRestriction.SERVER_OWNER);
+    }
+
+    @Benchmark
+    public boolean unrestricted() {
+        return open.checkPermissions(permissions, bot.guild.server, bot.moderator);
+    }
+
+    @Benchmark
+    public boolean restricted() {
+        if (!cached) bot.registry.invalidatePermissions(bot.guild.server, bot.moderator);
+        return restricted.checkPermissions(permissions, bot.guild.server, bot.moderator);
+    }
+}
@@ -0,0 +1,72 @@
+package de.boney.bonecmd;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pushes a recorded message corpus through the dispatcher as fast as it goes, one message per operation.
+ * The corpus has one message per line, lines starting with {@code #} are skipped. Pass your own with
+ * {@code -p corpus=/path/to/messages.txt}, by default a small bundled sample is used.
+ * The gc profiler is enabled in build.gradle, so the allocation rate is reported next to the throughput.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReplayBenchmark {
+    @Param("")
+    public String corpus;
+
+    private final Bot bot = Bot.INSTANCE;
+    private String[] messages;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(open(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty() && !line.startsWith("#")) lines.add(line);
+            }
+        }
+        if (lines.isEmpty()) throw new IllegalStateException("The corpus has no messages");
+        messages = lines.toArray(new String[0]);
+    }
+
+    private InputStream open() throws IOException {
+        if (!corpus.isEmpty()) return Files.newInputStream(Paths.get(corpus));
+        InputStream in = ReplayBenchmark.class.getResourceAsStream("corpus.txt");
+        if (in == null) throw new IOException("Bundled corpus.txt is missing");
+        return in;
+    }
+
+    @Benchmark
+    public void replay() {
+        String message = messages[next];
+        next = next + 1 == messages.length ? 0 : next + 1;
+        bot.handle(message, bot.member);
+    }
+}
@@ -0,0 +1,252 @@
+package de.boney.bonecmd;
+
+import org.javacord.api.entity.server.Server;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable parse plan for a command's formal parameters.
+ * Built once per parameter list, then reused for every invocation.
+ * Every distinct parameter name gets a slot, in order of first appearance;
+ * parsed values are stored by slot in {@link Arguments}.
+ */
+final class ArgumentParser {
+    static final int MAX_SLOTS = 64;
+
+    static final int INTEGER = 0;
+    static final int DECIMAL = 1;
+    static final int MENTION = 2;
+    static final int CHANNEL = 3;
+    static final int QUOTED = 4;
+    static final int WORD = 5;
+    static final int INTEGER_OUT_OF_RANGE = 6;
+
+    static final ArgumentParser RAW = new ArgumentParser(Collections.singletonList(new Command.Parameter(Command.ArgType.STRING, "raw", true)));
+
+    private final Command.ArgType[] types;
+    private final boolean[] optional;
+    private final int[] slots;
+    // per parameter: bit n is set if a token of class n may be bound to it
+    private final int[] accepts;
+    private final String[] typeErrors;
+    private final String[] longRangeErrors;
+    private final int min;
+    private final String notEnoughPrefix;
+    private final Map<String, Integer> slotsByName = new HashMap<>();
+
+    ArgumentParser(List<Command.Parameter> params) {
+        int n = params.size();
+        types = new Command.ArgType[n];
+        optional = new boolean[n];
+        slots = new int[n];
+        accepts = new int[n];
+        typeErrors = new String[n];
+        longRangeErrors = new String[n];
+
+        int required = 0;
+        for (int i = 0; i < n; i++) {
+            Command.Parameter p = params.get(i);
+            types[i] = p.type;
+            optional[i] = p.optional;
+            // a repeated name shares the slot of its first appearance, later values overwrite earlier ones
+            Integer slot = slotsByName.get(p.name);
+            if (slot == null) {
+                slot = slotsByName.size();
+                slotsByName.put(p.name, slot);
+            }
+            slots[i] = slot;
+            accepts[i] = acceptMask(p.type);
+            typeErrors[i] = "Bad argument type for non-optional parameter " + p.name + ", I expected " + p.type.name();
+            longRangeErrors[i] = "Bad argument format for long integer parameter " + p.name + ", value is out of range";
+            if (!p.optional) required++;
+        }
+        if (slotsByName.size() > MAX_SLOTS) {
+            throw new IllegalStateException("A command can't have more than " + MAX_SLOTS + " parameters");
+        }
+        min = required;
+
+        String range;
+        if (n == required) range = String.valueOf(n);
+        else if (n - required == 1) range = required + " or " + n;
+        else range = required + ".." + n;
+        notEnoughPrefix = "Not enough arguments. I expected " + range + " but you gave ";
+    }
+
+    private static int acceptMask(Command.ArgType type) {
+        switch (type) {
+            case LONG:
+                return 1 << INTEGER;
+            case DOUBLE:
+                return 1 << INTEGER | 1 << DECIMAL;
+            case STRING:
+                return 1 << INTEGER | 1 << DECIMAL | 1 << QUOTED | 1 << WORD;
+            case USER:
+                return 1 << INTEGER | 1 << MENTION | 1 << QUOTED | 1 << WORD;
+            case CHANNEL:
+                return 1 << CHANNEL;
+            default:
+                return 0;
+        }
+    }
+
+    int slotCount() {
+        return slotsByName.size();
+    }
+
+    /**
+     * @return the slot of parameter {@code name}, or -1 if there is none
+     */
+    int slotOf(String name) {
+        Integer slot = slotsByName.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    boolean parse(Server server, MemberNameIndex memberNames, Tokens tokens, Arguments arguments, String[] err) {
+        String source = tokens.source();
+        int tokenCount = tokens.size();
+
+        for (int argsPos = 0, paramPos = 0; argsPos < tokenCount && paramPos < types.length; paramPos++) {
+            int start = tokens.start(argsPos);
+            int end = tokens.end(argsPos);
+            int tokenClass = classify(source, start, end);
+
+            if (tokenClass == INTEGER_OUT_OF_RANGE) {
+                // out of range is fatal no matter what the parameter wants
+                err[0] = longRangeErrors[paramPos];
+                return false;
+            }
+
+            if ((accepts[paramPos] & 1 << tokenClass) == 0) {
+                if (optional[paramPos]) continue;
+                err[0] = typeErrors[paramPos];
+                return false;
+            }
+
+            bind(server, memberNames, arguments, slots[paramPos], types[paramPos], tokenClass, source, start, end);
+            argsPos++;
+        }
+
+        int given = arguments.count();
+        if (given < min) {
+            err[0] = notEnoughPrefix + given + ".";
+            return false;
+        }
+
+        return true;
+    }
+
+    private static void bind(Server server, MemberNameIndex memberNames, Arguments arguments, int slot, Command.ArgType type, int tokenClass, String source, int start, int end) {
+        switch (type) {
+            case LONG:
+                arguments.setLong(slot, parseLong(source, start, end));
+                return;
+            case DOUBLE:
+                // long ints are still valid doubles
+                arguments.setDouble(slot, tokenClass == INTEGER ? (double) parseLong(source, start, end) : Double.parseDouble(source.substring(start, end)));
+                return;
+            case USER:
+                if (tokenClass == INTEGER) {
+                    arguments.setRef(slot, type, new EntityRef(server, memberNames, EntityRef.USER_ID, source.substring(start, end)));
+                } else if (tokenClass == MENTION) {
+                    arguments.setRef(slot, type, new EntityRef(server, memberNames, EntityRef.USER_ID, snowflake(source, start, end)));
+                } else {
+                    // a search miss isn't a stop, just a null user
+                    arguments.setRef(slot, type, new EntityRef(server, memberNames, EntityRef.USER_NAME, source.substring(start, end)));
+                }
+                return;
+            case CHANNEL:
+                arguments.setRef(slot, type, new EntityRef(server, memberNames, EntityRef.CHANNEL_ID, snowflake(source, start, end)));
+                return;
+            default:
+                arguments.setRef(slot, type, source.substring(start, end));
+        }
+    }
+
+    /**
+     * Extracts the id of a token already classified as {@link #MENTION} or {@link #CHANNEL}.
+     */
+    private static String snowflake(String source, int start, int end) {
+        int idStart = source.charAt(start + 2) == '!' ? start + 3 : start + 2;
+        return source.substring(idStart, end - 1);
+    }
+
+    static int classify(CharSequence s, int start, int end) {
+        if (start == end) return WORD;
+        char c = s.charAt(start);
+
+        if (c == '-' || isDigit(c)) {
+            boolean negative = c == '-';
+            int i = negative ? start + 1 : start;
+            int digitsStart = i;
+            while (i < end && isDigit(s.charAt(i))) i++;
+            int digits = i - digitsStart;
+            if (digits == 0) return wordOrQuoted(s, start, end);
+            if (i == end) return fitsLong(s, digitsStart, end, negative) ? INTEGER : INTEGER_OUT_OF_RANGE;
+            // decimals need a canonical integral part and at least one fractional digit
+            if (s.charAt(i) != '.' || (digits > 1 && s.charAt(digitsStart) == '0')) return wordOrQuoted(s, start, end);
+            int fractionStart = ++i;
+            while (i < end && isDigit(s.charAt(i))) i++;
+            return i == end && i > fractionStart ? DECIMAL : wordOrQuoted(s, start, end);
+        }
+
+        if (c == '<' && end - start >= 4 && s.charAt(end - 1) == '>') {
+            char kind = s.charAt(start + 1);
+            if (kind == '@' || kind == '#') {
+                int i = start + 2;
+                if (s.charAt(i) == '!') i++;
+                if (i < end - 1 && allDigits(s, i, end - 1)) return kind == '@' ? MENTION : CHANNEL;
+            }
+        }
+
+        return wordOrQuoted(s, start, end);
+    }
+
+    private static int wordOrQuoted(CharSequence s, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (Character.isWhitespace(s.charAt(i))) return QUOTED;
+        }
+        return WORD;
+    }
+
+    private static boolean allDigits(CharSequence s, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (!isDigit(s.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static final String LONG_MAX_DIGITS = "9223372036854775807";
+    private static final String LONG_MIN_DIGITS = "9223372036854775808";
+
+    private static boolean fitsLong(CharSequence s, int start, int end, boolean negative) {
+        while (start < end - 1 && s.charAt(start) == '0') start++;
+        int digits = end - start;
+        if (digits != LONG_MAX_DIGITS.length()) return digits < LONG_MAX_DIGITS.length();
+        String limit = negative ? LONG_MIN_DIGITS : LONG_MAX_DIGITS;
+        for (int i = 0; i < digits; i++) {
+            int diff = s.charAt(start + i) - limit.charAt(i);
+            if (diff != 0) return diff < 0;
+        }
+        return true;
+    }
+
+    /**
+     * Parses a token already classified as {@link #INTEGER}.
+     */
+    static long parseLong(CharSequence s, int start, int end) {
+        boolean negative = s.charAt(start) == '-';
+        long result = 0;
+        // accumulate negatively so Long.MIN_VALUE is representable
+        for (int i = negative ? start + 1 : start; i < end; i++) {
+            result = result * 10 - (s.charAt(i) - '0');
+        }
+        return negative ? result : -result;
+    }
+}
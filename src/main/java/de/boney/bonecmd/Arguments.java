@@ -8,25 +8,98 @@ import org.javacord.api.entity.message.embed.EmbedBuilder;
 import org.javacord.api.entity.server.Server;
 import org.javacord.api.entity.user.User;
 
-import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 
 public class Arguments {
-    private final Map<String, Command.Argument> arguments;
+    private final ArgumentParser layout;
+    // values by parameter slot, numbers are kept unboxed in their own lanes
+    private final long[] longs;
+    private final double[] doubles;
+    private final Object[] refs;
+    private final Command.ArgType[] types;
+    private long present;
     private final DiscordApi api;
     private final User user;
     private final TextChannel channel;
     private final Server server;
-
-    Arguments(Map<String, Command.Argument> arguments, DiscordApi api, User user, TextChannel channel, Server server) {
-        this.arguments = arguments;
+    private ReplySink sink;
+
+    Arguments(ArgumentParser layout, DiscordApi api, User user, TextChannel channel, Server server) {
+        int slots = layout.slotCount();
+        this.layout = layout;
+        this.longs = new long[slots];
+        this.doubles = new double[slots];
+        this.refs = new Object[slots];
+        this.types = new Command.ArgType[slots];
         this.api = api;
         this.user = user;
         this.channel = channel;
         this.server = server;
     }
 
+    void setLong(int slot, long value) {
+        longs[slot] = value;
+        mark(slot, Command.ArgType.LONG);
+    }
+
+    void setDouble(int slot, double value) {
+        doubles[slot] = value;
+        mark(slot, Command.ArgType.DOUBLE);
+    }
+
+    void setRef(int slot, Command.ArgType type, Object value) {
+        refs[slot] = value;
+        mark(slot, type);
+    }
+
+    private void mark(int slot, Command.ArgType type) {
+        types[slot] = type;
+        present |= 1L << slot;
+    }
+
+    int count() {
+        return Long.bitCount(present);
+    }
+
+    /**
+     * The parsed values by slot, with entity arguments as typed rather than resolved.
+     * Two invocations with equal values are equal arguments.
+     */
+    Object[] normalizedValues() {
+        Object[] values = new Object[types.length * 2];
+        for (int slot = 0; slot < types.length; slot++) {
+            if ((present & 1L << slot) == 0) continue;
+            values[slot * 2] = types[slot];
+            switch (types[slot]) {
+                case LONG:
+                    values[slot * 2 + 1] = longs[slot];
+                    break;
+                case DOUBLE:
+                    values[slot * 2 + 1] = doubles[slot];
+                    break;
+                default:
+                    Object ref = refs[slot];
+                    values[slot * 2 + 1] = ref instanceof EntityRef ? ((EntityRef) ref).normalizedKey() : ref;
+            }
+        }
+        return values;
+    }
+
+    ReplySink getReplySink() {
+        return sink();
+    }
+
+    private boolean has(int slot, Command.ArgType type) {
+        return slot >= 0 && (present & 1L << slot) != 0 && types[slot] == type;
+    }
+
+    private Object ref(int slot) {
+        Object value = refs[slot];
+        return value instanceof EntityRef ? ((EntityRef) value).get() : value;
+    }
+
     public DiscordApi getApi() {
         return api;
     }
@@ -43,51 +116,134 @@ public class Arguments {
         return server;
     }
 
+    void replyTo(ReplySink sink) {
+        this.sink = sink;
+    }
+
+    private ReplySink sink() {
+        ReplySink s = sink;
+        if (s == null) sink = s = ReplySink.of(channel);
+        return s;
+    }
+
     public CompletableFuture<Message> reply(String str) {
-        return getInvokingChannel().sendMessage(str);
+        return sink().send(str);
     }
 
     public CompletableFuture<Message> reply(String str, Object...format) {
         return reply(String.format(str, format));
     }
 
+    /**
+     * Sends {@code embedBuilder} as it is. Discord refuses embeds over its size limits,
+     * use {@link #replyEmbed(String, CharSequence)} for text that might not fit.
+     */
     public CompletableFuture<Message> reply(EmbedBuilder embedBuilder) {
-        return getInvokingChannel().sendMessage(embedBuilder);
+        return sink().send(embedBuilder);
+    }
+
+    /**
+     * Replies with {@code description} in embeds titled {@code title}, as many as Discord's size limits need.
+     *
+     * @return the message holding the last embed
+     */
+    public CompletableFuture<Message> replyEmbed(String title, CharSequence description) {
+        CompletableFuture<Message> sent = null;
+        for (EmbedBuilder embed : MessageChunker.embeds(title, description)) sent = sink().send(embed);
+        return sent;
+    }
+
+    public boolean has(Command.Param param) {
+        return has(param.slot, param.type);
+    }
+
+    public long getLong(Command.LongParam param) {
+        if (!has(param.slot, Command.ArgType.LONG)) throw new NoSuchElementException(param.name);
+        return longs[param.slot];
+    }
+
+    public long getLong(Command.LongParam param, long orElse) {
+        return has(param.slot, Command.ArgType.LONG) ? longs[param.slot] : orElse;
+    }
+
+    public double getDouble(Command.DoubleParam param) {
+        if (!has(param.slot, Command.ArgType.DOUBLE)) throw new NoSuchElementException(param.name);
+        return doubles[param.slot];
+    }
+
+    public double getDouble(Command.DoubleParam param, double orElse) {
+        return has(param.slot, Command.ArgType.DOUBLE) ? doubles[param.slot] : orElse;
+    }
+
+    /**
+     * @return the value, or null if it wasn't given
+     */
+    public String getString(Command.StringParam param) {
+        return has(param.slot, Command.ArgType.STRING) ? (String) refs[param.slot] : null;
+    }
+
+    /**
+     * @return the user, or null if it wasn't given or couldn't be found
+     */
+    public User getUser(Command.UserParam param) {
+        return has(param.slot, Command.ArgType.USER) ? (User) ref(param.slot) : null;
+    }
+
+    public CompletableFuture<Optional<User>> getUserAsync(Command.UserParam param) {
+        if (!has(param.slot, Command.ArgType.USER)) return CompletableFuture.completedFuture(Optional.empty());
+        return ((EntityRef) refs[param.slot]).getUserAsync(api);
+    }
+
+    /**
+     * @return the channel, or null if it wasn't given or couldn't be found
+     */
+    public ServerTextChannel getChannel(Command.ChannelParam param) {
+        return has(param.slot, Command.ArgType.CHANNEL) ? (ServerTextChannel) ref(param.slot) : null;
     }
 
     public Optional<Long> getLong(String name) {
-        if (!arguments.containsKey(name)) return Optional.empty();
-        if (arguments.get(name).type != Command.ArgType.LONG) return Optional.empty();
-        return Optional.ofNullable((Long) arguments.get(name).value);
+        int slot = layout.slotOf(name);
+        if (!has(slot, Command.ArgType.LONG)) return Optional.empty();
+        return Optional.of(longs[slot]);
     }
 
     public Optional<Double> getDouble(String name) {
-        if (!arguments.containsKey(name)) return Optional.empty();
-        if (arguments.get(name).type != Command.ArgType.DOUBLE) return Optional.empty();
-        return Optional.ofNullable((Double) arguments.get(name).value);
+        int slot = layout.slotOf(name);
+        if (!has(slot, Command.ArgType.DOUBLE)) return Optional.empty();
+        return Optional.of(doubles[slot]);
     }
 
     public Optional<Boolean> getBool(String name) {
-        if (!arguments.containsKey(name)) return Optional.empty();
-        if (arguments.get(name).type != Command.ArgType.BOOL) return Optional.empty();
-        return Optional.ofNullable((Boolean) arguments.get(name).value);
+        int slot = layout.slotOf(name);
+        if (!has(slot, Command.ArgType.BOOL)) return Optional.empty();
+        return Optional.ofNullable((Boolean) refs[slot]);
     }
 
     public Optional<String> getString(String name) {
-        if (!arguments.containsKey(name)) return Optional.empty();
-        if (arguments.get(name).type != Command.ArgType.STRING) return Optional.empty();
-        return Optional.ofNullable((String) arguments.get(name).value);
+        int slot = layout.slotOf(name);
+        if (!has(slot, Command.ArgType.STRING)) return Optional.empty();
+        return Optional.ofNullable((String) refs[slot]);
     }
 
     public Optional<User> getUser(String name) {
-        if (!arguments.containsKey(name)) return Optional.empty();
-        if (arguments.get(name).type != Command.ArgType.USER) return Optional.empty();
-        return Optional.ofNullable((User) arguments.get(name).value);
+        int slot = layout.slotOf(name);
+        if (!has(slot, Command.ArgType.USER)) return Optional.empty();
+        return Optional.ofNullable((User) ref(slot));
+    }
+
+    /**
+     * Like {@link #getUser(String)}, but a mentioned or id given user who isn't cached as a member
+     * is fetched from Discord instead of being reported as absent.
+     */
+    public CompletableFuture<Optional<User>> getUserAsync(String name) {
+        int slot = layout.slotOf(name);
+        if (!has(slot, Command.ArgType.USER)) return CompletableFuture.completedFuture(Optional.empty());
+        return ((EntityRef) refs[slot]).getUserAsync(api);
     }
 
     public Optional<ServerTextChannel> getChannel(String name) {
-        if (!arguments.containsKey(name)) return Optional.empty();
-        if (arguments.get(name).type != Command.ArgType.CHANNEL) return Optional.empty();
-        return Optional.ofNullable((ServerTextChannel) arguments.get(name).value);
+        int slot = layout.slotOf(name);
+        if (!has(slot, Command.ArgType.CHANNEL)) return Optional.empty();
+        return Optional.ofNullable((ServerTextChannel) ref(slot));
     }
 }
@@ -0,0 +1,12 @@
+package de.boney.bonecmd;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * A task that starts its work and returns without waiting for it, e.g. for commands that call web services.
+ * The command counts as finished when the returned stage completes.
+ */
+@FunctionalInterface
+public interface AsyncCommandTask {
+    CompletionStage<?> execute(Arguments args);
+}
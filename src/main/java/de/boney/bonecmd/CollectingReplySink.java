@@ -0,0 +1,120 @@
+package de.boney.bonecmd;
+
+import org.javacord.api.entity.channel.TextChannel;
+import org.javacord.api.entity.message.Message;
+import org.javacord.api.entity.message.embed.EmbedBuilder;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Joins text replies line by line and sends them as few messages as possible. Collected text goes out
+ * once it fills a message, when the window since the first unsent reply has passed, and when closed.
+ * The futures of collected replies complete when the message holding the end of their text is sent.
+ * Embeds can't be merged, they flush the text collected so far and go out on their own. Their contents
+ * can't be read back, so they are sent unchecked; {@link Arguments#replyEmbed} splits text into embeds that fit.
+ * Replies sent after closing go straight to the channel.
+ */
+final class CollectingReplySink implements ReplySink {
+    private static final class Pending {
+        // offset in the collected text where this reply ends
+        int end;
+        final CompletableFuture<Message> future;
+
+        Pending(int end, CompletableFuture<Message> future) {
+            this.end = end;
+            this.future = future;
+        }
+    }
+
+    private final TextChannel channel;
+    private final long windowNanos;
+    private final StringBuilder text = new StringBuilder();
+    private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+    private ScheduledFuture<?> scheduled;
+    private boolean closed;
+
+    /**
+     * Collects until closed.
+     */
+    CollectingReplySink(TextChannel channel) {
+        this(channel, 0);
+    }
+
+    /**
+     * @param windowNanos how long a reply may wait for others to join it, 0 to wait until closed
+     */
+    CollectingReplySink(TextChannel channel, long windowNanos) {
+        this.channel = channel;
+        this.windowNanos = windowNanos;
+    }
+
+    @Override
+    public synchronized CompletableFuture<Message> send(String reply) {
+        if (closed) return channel.sendMessage(reply);
+        if (!pending.isEmpty()) text.append('\n');
+        text.append(reply);
+        CompletableFuture<Message> f = new CompletableFuture<>();
+        pending.add(new Pending(text.length(), f));
+        if (text.length() > MessageChunker.MAX_LENGTH) flush(false);
+        if (windowNanos > 0 && scheduled == null && !pending.isEmpty()) {
+            scheduled = Schedulers.timer().schedule(this::flushWindow, windowNanos, TimeUnit.NANOSECONDS);
+        }
+        return f;
+    }
+
+    @Override
+    public synchronized CompletableFuture<Message> send(EmbedBuilder embed) {
+        flush(true);
+        return channel.sendMessage(embed);
+    }
+
+    synchronized void close() {
+        flush(true);
+        closed = true;
+    }
+
+    private synchronized void flushWindow() {
+        scheduled = null;
+        flush(true);
+    }
+
+    /**
+     * @param all whether to send everything, or only what fills whole messages
+     */
+    private void flush(boolean all) {
+        int start = 0;
+        CompletableFuture<Message> sent = null;
+        while (start < text.length() && (all || text.length() - start > MessageChunker.MAX_LENGTH)) {
+            int end = MessageChunker.chunkEnd(text, start, MessageChunker.MAX_LENGTH);
+            sent = channel.sendMessage(text.substring(start, end));
+            while (!pending.isEmpty() && pending.peek().end <= end) complete(pending.poll().future, sent);
+            start = MessageChunker.nextStart(text, end);
+        }
+        if (all) {
+            // empty replies have nothing to be sent with
+            while (!pending.isEmpty()) complete(pending.poll().future, sent);
+            text.setLength(0);
+            if (scheduled != null) {
+                scheduled.cancel(false);
+                scheduled = null;
+            }
+            return;
+        }
+        text.delete(0, start);
+        for (Pending p : pending) p.end -= start;
+    }
+
+    private static void complete(CompletableFuture<Message> f, CompletableFuture<Message> sent) {
+        if (sent == null) {
+            f.complete(null);
+            return;
+        }
+        sent.whenComplete((message, t) -> {
+            if (t != null) f.completeExceptionally(t);
+            else f.complete(message);
+        });
+    }
+}
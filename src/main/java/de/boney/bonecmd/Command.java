@@ -1,39 +1,78 @@
 package de.boney.bonecmd;
 
-import org.javacord.api.DiscordApi;
 import org.javacord.api.entity.channel.TextChannel;
 import org.javacord.api.entity.permission.PermissionType;
 import org.javacord.api.entity.server.Server;
 import org.javacord.api.entity.user.User;
 
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.BiFunction;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class Command {
     private final String name;
+    private final List<String> aliases = new ArrayList<>();
+    private boolean ignoreCase;
     private final List<Parameter> formalParams;
     private CommandTask task;
+    private PipeTask pipeTask;
+    private AsyncCommandTask asyncTask;
+    private long timeoutNanos;
+    private long expectedNanos;
+    private ResultCache resultCache;
+    private final CommandMetrics metrics = new CommandMetrics();
     private boolean raw;
-
-    private final static Pattern SPLIT = Pattern.compile("\"([^\"]*)\"|(\\S+)");
-    private final static Pattern MENTION = Pattern.compile("^<@!?(\\d+)>$");
-    private final static Pattern CHANNEL = Pattern.compile("^<#!?(\\d+)>$");
+    private ExecutionPolicy executionPolicy;
+    private LaneKey laneKey;
+    private long replyWindowNanos = -1;
+    private RateLimiter[] rateLimits = new RateLimiter[0];
+    private final LongAdder throttled = new LongAdder();
+    // one per shard the command has run on
+    private final List<CommandExecutor> executors = new CopyOnWriteArrayList<>();
+    // rejections of executors whose shard was unbound, guarded by executors
+    private long retiredRejections;
+    private volatile ArgumentParser parser;
 
     private String toolTip = "No tooltip";
     private String longToolTip = "No help";
     private List<HelpWarning> warnings = new ArrayList<>();
+    // rendered on registration, cleared when anything shown in them changes
+    private volatile String shortHelp;
+    private volatile String longHelp;
 
     private long permissionBits = 0;
     private Set<SpecialRestriction> specialRestrictions = new HashSet<>();
     private Set<PermissionType> requiredTypes;
 
-    private static BiFunction<Server, User, Long> permissionBitSupplier;
-
+    /**
+     * Sets the supplier of the {@link CommandRegistry#getDefault() default registry}.
+     */
     public static void setInternalPermissionBitSupplier(BiFunction<Server, User, Long> myPermissionBitSupplier) {
-        permissionBitSupplier = myPermissionBitSupplier;
+        CommandRegistry.getDefault().setInternalPermissionBitSupplier(myPermissionBitSupplier);
+    }
+
+    /**
+     * Sets the loader of the {@link CommandRegistry#getDefault() default registry},
+     * see {@link CommandRegistry#setInternalPermissionBitLoader(Function, Duration, int)}.
+     */
+    public static void setInternalPermissionBitLoader(Function<Set<MemberKey>, CompletableFuture<Map<MemberKey, Long>>> loader, Duration window, int maxBatchSize) {
+        CommandRegistry.getDefault().setInternalPermissionBitLoader(loader, window, maxBatchSize);
+    }
+
+    public static void setInternalPermissionBitLoader(Function<Set<MemberKey>, CompletableFuture<Map<MemberKey, Long>>> loader) {
+        CommandRegistry.getDefault().setInternalPermissionBitLoader(loader);
     }
 
     public Command(String name) {
@@ -43,36 +82,215 @@ public class Command {
 
     public Command arg(ArgType argType, String name, boolean optional) {
         formalParams.add(new Parameter(argType, name, optional));
+        parser = null;
+        longHelp = null;
         return this;
     }
 
     public Command arg(ArgType argType, String name) {
-        formalParams.add(new Parameter(argType, name, false));
+        return arg(argType, name, false);
+    }
+
+    public LongParam longArg(String name) {
+        return new LongParam(name, slotOf(ArgType.LONG, name));
+    }
+
+    public DoubleParam doubleArg(String name) {
+        return new DoubleParam(name, slotOf(ArgType.DOUBLE, name));
+    }
+
+    public StringParam stringArg(String name) {
+        return new StringParam(name, slotOf(ArgType.STRING, name));
+    }
+
+    public UserParam userArg(String name) {
+        return new UserParam(name, slotOf(ArgType.USER, name));
+    }
+
+    public ChannelParam channelArg(String name) {
+        return new ChannelParam(name, slotOf(ArgType.CHANNEL, name));
+    }
+
+    private int slotOf(ArgType type, String name) {
+        if (raw) throw new IllegalStateException("Raw commands only have the raw string");
+        if (formalParams.stream().noneMatch(p -> p.type == type && p.name.equals(name))) {
+            throw new IllegalArgumentException("No " + type.name().toLowerCase() + " parameter named " + name);
+        }
+        return parser().slotOf(name);
+    }
+
+    public Command alias(String...aliases) {
+        this.aliases.addAll(Arrays.asList(aliases));
+        return this;
+    }
+
+    public Command ignoreCase() {
+        this.ignoreCase = true;
         return this;
     }
 
     public Command raw() {
         this.raw = true;
+        parser = null;
         return this;
     }
 
     public Command runs(CommandTask task) {
         this.task = task;
+        this.pipeTask = null;
+        this.asyncTask = null;
+        return this;
+    }
+
+    /**
+     * Runs a task that doesn't block while it waits, the pool thread is free again as soon as the task returns its stage.
+     * A failed stage is answered with an error reply.
+     */
+    public Command runsAsync(AsyncCommandTask task) {
+        this.asyncTask = task;
+        this.task = null;
+        this.pipeTask = null;
+        return this;
+    }
+
+    /**
+     * Gives up on an asynchronous task that hasn't completed after {@code timeout}. Its stage is cancelled
+     * and the user is told the command took too long. Tasks set up with {@link #runs(CommandTask)} aren't affected.
+     */
+    public Command timeout(Duration timeout) {
+        if (timeout.isNegative()) throw new IllegalArgumentException("timeout must not be negative");
+        this.timeoutNanos = timeout.toNanos();
+        return this;
+    }
+
+    /**
+     * Runs a task that reads the output of the previous command in a pipe and writes its own for the next one.
+     * Invoked on its own, the task gets no input and its output is sent as a reply.
+     * Commands set up with {@link #runs(CommandTask)} can be piped too, their text replies become their output
+     * and they ignore their input.
+     */
+    public Command pipes(PipeTask task) {
+        this.pipeTask = task;
+        this.asyncTask = null;
+        this.task = args -> {
+            StringBuilder output = new StringBuilder();
+            task.execute(args, Stream.empty(), line -> output.append(output.length() == 0 ? "" : "\n").append(line));
+            for (String chunk : MessageChunker.split(output)) args.reply(chunk);
+        };
+        return this;
+    }
+
+    /**
+     * Runs this command's tasks under {@code policy} instead of submitting them to Javacord's pool without limit.
+     * An asynchronous task counts against {@code maxConcurrency} until its future completes.
+     * Each bound shard enforces the policy on its own, with N shards up to N times {@code maxConcurrency} run at once.
+     */
+    public Command executes(ExecutionPolicy policy) {
+        this.executionPolicy = policy;
+        return this;
+    }
+
+    /**
+     * Runs invocations that share a server (or channel) one at a time, in the order they arrived.
+     * Ordered commands run on the shared lanes, an execution policy doesn't apply to them.
+     * For asynchronous tasks only starting the task is ordered, not its completion.
+     */
+    public Command orderedBy(LaneKey laneKey) {
+        this.laneKey = laneKey;
         return this;
     }
 
+    /**
+     * Lets each user invoke this command once per {@code cooldown}.
+     */
+    public Command cooldown(Duration cooldown) {
+        return rateLimit(1, cooldown, Scope.USER);
+    }
+
+    /**
+     * Allows {@code permits} invocations per {@code per} and {@code scope}, bursts included.
+     * Invocations over the limit are dropped without a reply before arguments are parsed.
+     * Per user limits are checked before permissions, the others only once permissions passed,
+     * so users who may not run the command can't use up a budget others share.
+     */
+    public Command rateLimit(int permits, Duration per, Scope scope) {
+        rateLimits = Arrays.copyOf(rateLimits, rateLimits.length + 1);
+        rateLimits[rateLimits.length - 1] = new RateLimiter(permits, per, scope);
+        return this;
+    }
+
+    /**
+     * Merges the text replies of an invocation into as few messages as possible. A reply waits at most
+     * {@code window} for others to join it, everything left is sent when the task returns.
+     * With a zero window, replies are only sent when they fill a message or when the task returns.
+     */
+    public Command bufferReplies(Duration window) {
+        if (window.isNegative()) throw new IllegalArgumentException("window must not be negative");
+        this.replyWindowNanos = window.toNanos();
+        return this;
+    }
+
+    /**
+     * Marks this command as slow, like {@link HelpWarning#TIME_CONSUMING}, and tells the watchdog how long it should take.
+     * Slow commands run on their own bounded pool, so they can't hold up the others.
+     */
+    public Command expectedDuration(Duration duration) {
+        if (duration.isNegative() || duration.isZero()) throw new IllegalArgumentException("duration must be positive");
+        this.expectedNanos = duration.toNanos();
+        return this;
+    }
+
+    /**
+     * Remembers the text replies of this command for {@code ttl}. An invocation with the same arguments
+     * in the same scope gets the remembered replies without the task running again.
+     * Only use this for commands whose replies depend on nothing but their arguments and scope.
+     * Replies with embeds aren't remembered.
+     */
+    public Command cacheable(Duration ttl, Scope scope) {
+        return cacheable(ttl, scope, 1_000);
+    }
+
+    public Command cacheable(Duration ttl, Scope scope, int maxEntries) {
+        if (ttl.isNegative() || ttl.isZero()) throw new IllegalArgumentException("ttl must be positive");
+        this.resultCache = new ResultCache(ttl.toNanos(), scope, maxEntries);
+        return this;
+    }
+
+    /**
+     * Forgets all remembered replies, e.g. after the data behind this command changed.
+     */
+    public void invalidateCache() {
+        ResultCache c = resultCache;
+        if (c != null) c.invalidate();
+    }
+
+    public CommandMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return the statistics of this command's result cache, null if it isn't cacheable
+     */
+    public CacheStats getResultCacheStats() {
+        ResultCache c = resultCache;
+        return c == null ? null : c.stats();
+    }
+
     public Command tip(String toolTip) {
         this.toolTip = toolTip;
+        shortHelp = longHelp = null;
         return this;
     }
 
     public Command help(String longToolTip) {
         this.longToolTip = longToolTip;
+        longHelp = null;
         return this;
     }
 
     public Command warn(HelpWarning...warns) {
         this.warnings.addAll(Arrays.asList(warns));
+        shortHelp = longHelp = null;
         return this;
     }
 
@@ -96,44 +314,105 @@ public class Command {
     }
 
     public String getShortHelpMessage() {
+        String help = shortHelp;
+        if (help == null) shortHelp = help = renderShortHelp();
+        return help;
+    }
+
+    public String getHelpMessage() {
+        String help = longHelp;
+        if (help == null) longHelp = help = renderHelp();
+        return help;
+    }
+
+    private String renderShortHelp() {
         String base = name + ": " + toolTip;
         if (warnings.size() == 0) return base;
         return base + warnings.stream().map(w -> w.emote).collect(Collectors.joining(" "));
     }
 
-    public String getHelpMessage() {
+    private String renderHelp() {
         String args = formalParams.stream().map(p -> p.type.name().toLowerCase() + " " + p.name + (p.optional ? "?" : "")).collect(Collectors.joining(", "));
         String base = String.format("%s (%s): %s%n%s", name, args, toolTip, longToolTip);
         if (warnings.size() == 0) return base;
         return base + "\n" + warnings.stream().map(w -> w.emote + " " + w.message).collect(Collectors.joining("\n"));
     }
 
+    /**
+     * Marks the message if the user can't use this command, going by the permissions of the
+     * {@link CommandRegistry#getDefault() default registry}.
+     */
     public String getShortHelpMessage(Server server, User user) {
-        return (checkPermissions(server, user) ? "" : "\uD83D\uDEAB ") + getShortHelpMessage();
+        return getShortHelpMessage(CommandRegistry.getDefault().permissions(server), server, user);
     }
 
     public String getHelpMessage(Server server, User user) {
-        return (checkPermissions(server, user) ? "" : "\uD83D\uDEAB ") + getHelpMessage();
+        return getHelpMessage(CommandRegistry.getDefault().permissions(server), server, user);
     }
 
-    boolean checkPermissions(Server server, User user) {
+    String getShortHelpMessage(PermissionCache permissions, Server server, User user) {
+        return (checkPermissions(permissions, server, user) ? "" : "\uD83D\uDEAB ") + getShortHelpMessage();
+    }
+
+    String getHelpMessage(PermissionCache permissions, Server server, User user) {
+        return (checkPermissions(permissions, server, user) ? "" : "\uD83D\uDEAB ") + getHelpMessage();
+    }
+
+    boolean needsPermissionData(PermissionCache permissions) {
+        return !specialRestrictions.isEmpty() || (requiredTypes != null && !requiredTypes.isEmpty())
+                || (permissionBits != 0 && permissions.hasBitSource());
+    }
+
+    boolean checkPermissions(PermissionCache permissions, Server server, User user) {
+        if (!needsPermissionData(permissions)) return true;
+        return checkPermissions(permissions, permissions.get(server, user), server, user);
+    }
+
+    /**
+     * Checks against a snapshot the caller already holds, e.g. one shared by all steps of a macro.
+     */
+    boolean checkPermissions(PermissionCache permissions, PermissionCache.Snapshot snapshot, Server server, User user) {
+        Boolean decided = checkWithoutBits(permissions, snapshot);
+        if (decided != null) return decided;
+        return checkBits(snapshot.getBits(permissions, server, user, null).join());
+    }
+
+    /**
+     * Like {@link #checkPermissions(PermissionCache, Server, User)}, but internal permission bits that aren't cached yet
+     * are loaded without blocking the caller. A synchronous supplier is run on {@code executor}.
+     */
+    CompletableFuture<Boolean> checkPermissionsAsync(PermissionCache permissions, Server server, User user, Executor executor) {
+        if (!needsPermissionData(permissions)) return CompletableFuture.completedFuture(true);
+        PermissionCache.Snapshot snapshot = permissions.get(server, user);
+        Boolean decided = checkWithoutBits(permissions, snapshot);
+        if (decided != null) return CompletableFuture.completedFuture(decided);
+        return snapshot.getBits(permissions, server, user, executor).thenApply(this::checkBits);
+    }
+
+    /**
+     * @return the decision if it doesn't depend on internal permission bits, null otherwise
+     */
+    private Boolean checkWithoutBits(PermissionCache permissions, PermissionCache.Snapshot snapshot) {
 
         if (!specialRestrictions.isEmpty()) {
-            if (specialRestrictions.contains(SpecialRestriction.BOT_OWNER) && user.isBotOwner())
+            if (specialRestrictions.contains(SpecialRestriction.BOT_OWNER) && snapshot.isBotOwner())
                 return true;
-            if (specialRestrictions.contains(SpecialRestriction.SERVER_OWNER) && server.getOwner().equals(user))
+            if (specialRestrictions.contains(SpecialRestriction.SERVER_OWNER) && snapshot.isServerOwner())
                 return true;
 
             return false;
         }
 
         if (requiredTypes != null && !requiredTypes.isEmpty()) {
-            if (!server.getAllowedPermissions(user).containsAll(requiredTypes)) return false;
+            if (!snapshot.allows(requiredTypes)) return false;
         }
 
         if (permissionBits == 0) return true;
-        if (permissionBitSupplier == null) return true;
-        long userBits = permissionBitSupplier.apply(server, user);
+        if (!permissions.hasBitSource()) return true;
+        return null;
+    }
+
+    private boolean checkBits(long userBits) {
         if (permissionBits <= ADMIN_BITS) {
             return (userBits & (permissionBits | ADMIN_BITS)) > 0;
         } else {
@@ -145,198 +424,210 @@ public class Command {
         return name;
     }
 
-    CommandTask getTask() {
-        return task;
+    List<String> getAliases() {
+        return aliases;
     }
 
-    Arguments getArguments(DiscordApi api, Server server, TextChannel channel, User user, String fullCommand, String[] err) {
-        return new Arguments(buildArgumentsList(server, fullCommand, err), api, user, channel, server);
+    boolean isIgnoreCase() {
+        return ignoreCase;
     }
 
-    private Map<String, Argument> buildArgumentsList(Server server, String fullCommand, String[] err) {
-
-        if (raw) {
-            HashMap<String, Argument> m = new HashMap<>();
-            if (fullCommand.length() >= name.length() + 2) {
-                m.put("raw", new Argument(ArgType.STRING, "raw", fullCommand.substring(name.length() + 2)));
+    /**
+     * Runs the task. A plain task has finished when this returns, an asynchronous one when the returned future completes.
+     */
+    CompletableFuture<Object> start(Watchdog watchdog, Arguments args) {
+        CompletableFuture<Object> result = new CompletableFuture<>();
+        Watchdog.Watch watch = watchdog.start(name, expectedNanos);
+        if (asyncTask == null) {
+            try {
+                task.execute(args);
+                result.complete(null);
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            } finally {
+                watchdog.stop(watch);
             }
-            return m;
+            return result;
         }
 
-        List<String> tokens = tokenize(fullCommand);
-        Map<String, Argument> arguments = new HashMap<>();
-
-        for (int argsPos = 0, paramPos = 0; argsPos < tokens.size() && paramPos < formalParams.size(); paramPos++) {
-            String token = tokens.get(argsPos);
-            Parameter currentParameter = formalParams.get(paramPos);
-            String currentParameterName = currentParameter.name;
-
-            if (token.matches("^-?\\d+$")) {
-                // try to get a long
-                try {
-                    Long l = Long.parseLong(token);
-                    if (currentParameter.type == ArgType.LONG) {
-                        arguments.put(currentParameterName, new Argument(ArgType.LONG, currentParameterName, l));
-                        argsPos++;
-                        continue;
-                    }
-                    if (currentParameter.type == ArgType.DOUBLE) {
-                        // long ints are still valid doubles
-                        arguments.put(currentParameterName, new Argument(ArgType.DOUBLE, currentParameterName, l.doubleValue()));
-                        argsPos++;
-                        continue;
-                    }
-                    if (currentParameter.type == ArgType.USER) {
-                        arguments.put(currentParameterName, new Argument(ArgType.USER, currentParameterName, server.getMemberById(token).orElse(null)));
-                        argsPos++;
-                        continue;
-                    }
-                    if (currentParameter.type == ArgType.STRING) {
-                        arguments.put(currentParameterName, new Argument(ArgType.STRING, currentParameterName, token));
-                        argsPos++;
-                        continue;
-                    }
-                    if (currentParameter.optional) { continue; }
-                    err[0] = "Bad argument type for non-optional parameter " + currentParameterName + ", I expected " + currentParameter.type.name();
-                    return null;
-                } catch (NumberFormatException e) {
-                    err[0] = "Bad argument format for long integer parameter " + currentParameterName + ", value is out of range";
-                    return null; // long is too large or small, stop.
-                }
-            }
+        CompletableFuture<?> work;
+        try {
+            work = asyncTask.execute(args).toCompletableFuture();
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+            return result;
+        } finally {
+            // only the part that holds a thread is watched
+            watchdog.stop(watch);
+        }
+        if (timeoutNanos > 0 && !work.isDone()) {
+            ScheduledFuture<?> timer = Schedulers.timer().schedule(() -> {
+                if (result.completeExceptionally(new TimeoutException(name + " timed out"))) work.cancel(true);
+            }, timeoutNanos, TimeUnit.NANOSECONDS);
+            result.whenComplete((r, t) -> timer.cancel(false));
+        }
+        work.whenComplete((r, t) -> {
+            if (t != null) result.completeExceptionally(t);
+            else result.complete(r);
+        });
+        return result;
+    }
 
-            if (token.matches("^(-?)(0|([1-9][0-9]*))(\\.[0-9]+)?$")) {
-                try {
-                    Double d = Double.parseDouble(token);
-                    if (currentParameter.type == ArgType.DOUBLE) {
-                        arguments.put(currentParameterName, new Argument(ArgType.DOUBLE, currentParameterName, d));
-                        argsPos++;
-                        continue;
-                    }
-                    if (currentParameter.type == ArgType.STRING) {
-                        arguments.put(currentParameterName, new Argument(ArgType.STRING, currentParameterName, token));
-                        argsPos++;
-                        continue;
-                    }
-                    if (currentParameter.optional) { continue; }
-                    err[0] = "Bad argument type for non-optional parameter " + currentParameterName + ", I expected " + currentParameter.type.name();
-                    return null;
-                } catch (NumberFormatException e) {
-                    err[0] = "Bad argument format for floating point parameter " + currentParameterName + ", value is malformed";
-                    return null;
-                }
-            }
+    /**
+     * Runs this command as a stage of a pipe, waiting for asynchronous tasks.
+     */
+    void execute(Watchdog watchdog, Arguments args, Stream<String> input, Consumer<String> output) {
+        if (pipeTask == null) {
+            start(watchdog, args).join();
+            return;
+        }
+        Watchdog.Watch watch = watchdog.start(name, expectedNanos);
+        try {
+            pipeTask.execute(args, input, output);
+        } finally {
+            watchdog.stop(watch);
+        }
+    }
 
-            if (token.matches(MENTION.pattern())) {
-                if (currentParameter.type != ArgType.USER) {
-                    if (currentParameter.optional) { continue; }
-                    err[0] = "Bad argument type for non-optional parameter " + currentParameterName + ", I expected " + currentParameter.type.name();
-                    return null;
-                }
-                Matcher m = MENTION.matcher(token);
-                if (m.find()) {
-                    arguments.put(currentParameterName, new Argument(ArgType.USER, currentParameterName, server.getMemberById(m.group(1)).orElse(null)));
-                    argsPos++;
-                    continue;
-                }
-            }
+    /**
+     * The reply for a task that failed, the same for every command.
+     */
+    static String failureReply(Throwable t) {
+        Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+        if (cause instanceof TimeoutException) return "Error:\nThis took too long and was cancelled.";
+        return "Error:\nSomething went wrong while running this command.";
+    }
 
-            if (token.matches(CHANNEL.pattern())) {
-                if (currentParameter.type != ArgType.CHANNEL) {
-                    if (currentParameter.optional) { continue; }
-                    err[0] = "Bad argument type for non-optional parameter " + currentParameterName + ", I expected " + currentParameter.type.name();
-                    return null;
-                }
-                Matcher m = CHANNEL.matcher(token);
-                if (m.find()) {
-                    arguments.put(currentParameterName, new Argument(ArgType.CHANNEL, currentParameterName, server.getChannelById(m.group(1)).orElse(null)));
-                    argsPos++;
-                    continue;
-                }
-            }
+    /**
+     * @return how long replies are buffered, -1 if they aren't
+     */
+    long getReplyWindowNanos() {
+        return replyWindowNanos;
+    }
 
-            if (token.contains("\\s")) { // has whitespace, so it must be a quoted string
-                if (currentParameter.type == ArgType.USER) {
-                    // try to match this to a user. it's quoted, so don't bother with an id
-                    // a search miss isn't a stop, just a null user
-                    List<User> users = new ArrayList<>(server.getMembersByNameIgnoreCase(token));
-                    if (users.size() == 0) {
-                        arguments.put(currentParameterName, new Argument(ArgType.USER, currentParameterName, null));
-                        argsPos++;
-                        continue;
-                    }
-                    arguments.put(currentParameterName, new Argument(ArgType.USER, currentParameterName, users.get(0)));
-                    argsPos++;
-                    continue;
-                }
-                if (currentParameter.type != ArgType.STRING) {
-                    //only String and User can be quoted. Check for optional command or stop
-                    if (!currentParameter.optional) {
-                        //bad argument, stop
-                        err[0] = "Bad argument type for non-optional parameter " + currentParameterName + ", I expected " + currentParameter.type.name();
-                        return null;
-                    }
-                    //don't increase argsPos because we still need to match it to something later
-                    continue;
-                }
-                //it's a string so just add it
-                arguments.put(currentParameterName, new Argument(ArgType.STRING, currentParameterName, token));
-                argsPos++;
-                continue;
-            }
+    ResultCache getResultCache() {
+        return resultCache;
+    }
 
-            //user?
-            if (currentParameter.type ==  ArgType.USER) {
-                List<User> users = new ArrayList<>(server.getMembersByNameIgnoreCase(token));
-                if (users.size() == 0) {
-                    arguments.put(currentParameterName, new Argument(ArgType.USER, currentParameterName, null));
-                    argsPos++;
-                    continue;
-                }
-                arguments.put(currentParameterName, new Argument(ArgType.USER, currentParameterName, users.get(0)));
-                argsPos++;
-                continue;
-            }
+    boolean isTimeConsuming() {
+        return expectedNanos > 0 || warnings.contains(HelpWarning.TIME_CONSUMING);
+    }
 
-            // i guess it is a string then
+    LaneKey getLaneKey() {
+        return laneKey;
+    }
 
-            if (currentParameter.type != ArgType.STRING) {
-                if (currentParameter.optional) { continue; }
-                err[0] = "Bad argument type for non-optional parameter " + currentParameterName + ", I expected " + currentParameter.type.name();
-                return null;
+    /**
+     * Takes a permit from every per user rate limit of this command, or from every other one.
+     * Limits are checked in the order they were added, permits taken before a limit refuses are not given back.
+     */
+    boolean tryAcquire(Server server, User user, TextChannel channel, boolean perUser) {
+        for (RateLimiter limit : rateLimits) {
+            if ((limit.scope == Scope.USER) != perUser) continue;
+            if (!limit.tryAcquire(limit.scope.id(server, user, channel))) {
+                throttled.increment();
+                return false;
             }
-            arguments.put(currentParameterName, new Argument(ArgType.STRING, currentParameterName, token));
-            argsPos++;
         }
+        return true;
+    }
 
-        long min = formalParams.stream().filter(p -> !p.optional).count();
-        int max = formalParams.size();
+    /**
+     * @return how many invocations were dropped by this command's rate limits
+     */
+    public long getThrottledCount() {
+        return throttled.sum();
+    }
+
+    ExecutionPolicy getExecutionPolicy() {
+        return executionPolicy;
+    }
+
+    /**
+     * A new executor enforcing this command's execution policy on {@code shared}, counted in this command's totals.
+     */
+    CommandExecutor newExecutor(Executor shared) {
+        CommandExecutor e = new CommandExecutor(executionPolicy, shared, name);
+        executors.add(e);
+        return e;
+    }
+
+    void forgetExecutor(CommandExecutor e) {
+        synchronized (executors) {
+            if (executors.remove(e)) retiredRejections += e.getRejected();
+        }
+    }
+
+    /**
+     * The totals of all shards the command runs on, likewise {@link #getRunningCount()} and {@link #getRejectedCount()}.
+     */
+    public int getQueueDepth() {
+        int depth = 0;
+        for (CommandExecutor e : executors) depth += e.getQueueDepth();
+        return depth;
+    }
+
+    public int getRunningCount() {
+        int running = 0;
+        for (CommandExecutor e : executors) running += e.getRunning();
+        return running;
+    }
+
+    /**
+     * Includes rejections on shards that were unbound since.
+     */
+    public long getRejectedCount() {
+        synchronized (executors) {
+            long rejected = retiredRejections;
+            for (CommandExecutor e : executors) rejected += e.getRejected();
+            return rejected;
+        }
+    }
 
-        String range;
-        if (max == min) range = String.valueOf(max);
-        else if (max - min == 1) range = min + " or " + max;
-        else range = min + ".." + max;
+    void compile() {
+        parser();
+        getShortHelpMessage();
+        getHelpMessage();
+    }
 
-        if (arguments.size() < min) {
-            err[0] = "Not enough arguments. I expected " + range + " but you gave " + arguments.size() + ".";
-            return null;
+    private ArgumentParser parser() {
+        ArgumentParser p = parser;
+        if (p == null) {
+            p = raw ? ArgumentParser.RAW : new ArgumentParser(formalParams);
+            parser = p;
         }
+        return p;
+    }
 
+    /**
+     * @param nameEnd index in {@code fullCommand} right after the command name
+     */
+    Arguments getArguments(Shard shard, Server server, TextChannel channel, User user, String fullCommand, int nameEnd, String[] err) {
+        ArgumentParser parser = parser();
+        Arguments arguments = new Arguments(parser, shard.api, user, channel, server);
+        buildArgumentsList(parser, server, shard.memberNames, fullCommand, nameEnd, arguments, err);
         return arguments;
     }
 
-    public static List<String> tokenize(String fullCommand) {
-        List<String> tokens = new ArrayList<>();
-        Matcher m = SPLIT.matcher(fullCommand);
-        while (m.find()) {
-            if (m.group(1) != null) {
-                tokens.add(m.group(1));
-            } else {
-                tokens.add(m.group(2));
+    private void buildArgumentsList(ArgumentParser parser, Server server, MemberNameIndex memberNames, String fullCommand, int nameEnd, Arguments arguments, String[] err) {
+
+        if (raw) {
+            if (fullCommand.length() > nameEnd) {
+                arguments.setRef(0, ArgType.STRING, fullCommand.substring(nameEnd + 1));
             }
+            return;
+        }
+
+        Tokens tokens = Tokens.acquire(fullCommand, nameEnd, 0);
+        try {
+            parser.parse(server, memberNames, tokens, arguments, err);
+        } finally {
+            tokens.release();
         }
-        tokens.remove(0);
-        return tokens;
+    }
+
+    public static List<String> tokenize(String fullCommand) {
+        return Tokens.tokenize(fullCommand);
     }
 
     static class Parameter {
@@ -351,15 +642,52 @@ public class Command {
         }
     }
 
-    static class Argument {
-        final ArgType type;
+    /**
+     * Handle to a parameter, resolved to its storage slot when the command is defined.
+     */
+    public abstract static class Param {
         final String name;
-        final Object value;
+        final ArgType type;
+        final int slot;
 
-        Argument(ArgType type, String name, Object value) {
-            this.type = type;
+        Param(String name, ArgType type, int slot) {
             this.name = name;
-            this.value = value;
+            this.type = type;
+            this.slot = slot;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    public static final class LongParam extends Param {
+        LongParam(String name, int slot) {
+            super(name, ArgType.LONG, slot);
+        }
+    }
+
+    public static final class DoubleParam extends Param {
+        DoubleParam(String name, int slot) {
+            super(name, ArgType.DOUBLE, slot);
+        }
+    }
+
+    public static final class StringParam extends Param {
+        StringParam(String name, int slot) {
+            super(name, ArgType.STRING, slot);
+        }
+    }
+
+    public static final class UserParam extends Param {
+        UserParam(String name, int slot) {
+            super(name, ArgType.USER, slot);
+        }
+    }
+
+    public static final class ChannelParam extends Param {
+        ChannelParam(String name, int slot) {
+            super(name, ArgType.CHANNEL, slot);
         }
     }
 
@@ -367,6 +695,33 @@ public class Command {
         LONG, DOUBLE, BOOL, STRING, USER, CHANNEL
     }
 
+    /**
+     * Who shares a rate limit or cached replies.
+     */
+    public enum Scope {
+        USER, CHANNEL, SERVER, GLOBAL;
+
+        /**
+         * @return the id of the user, channel or server an invocation counts for, 0 for all of them
+         */
+        long id(Server server, User user, TextChannel channel) {
+            switch (this) {
+                case USER:
+                    return user.getId();
+                case CHANNEL:
+                    return channel.getId();
+                case SERVER:
+                    return server.getId();
+                default:
+                    return 0;
+            }
+        }
+    }
+
+    public enum LaneKey {
+        SERVER, CHANNEL
+    }
+
     public enum HelpWarning {
         MIGHT_MENTION("\uD83D\uDDEF", "Might mention other users."),
         TIME_CONSUMING("\uD83D\uDD57", "Might run for a long time."),
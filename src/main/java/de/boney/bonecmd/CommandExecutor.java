@@ -0,0 +1,188 @@
+package de.boney.bonecmd;
+
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Runs a command's tasks on a backing executor, at most {@code maxConcurrency} at a time,
+ * with at most {@code queueCapacity} waiting. Anything beyond that is rejected.
+ * A task that returns an unfinished future keeps its slot until the future completes.
+ * If the backing executor refuses a task, its slot is given back and the task counts as rejected.
+ */
+final class CommandExecutor {
+    // how long queued tasks wait before trying a full backing executor again
+    private static final long RETRY_MILLIS = 50;
+
+    private final Executor backing;
+    // the backing pool if the policy asked for one of its own, null for a shared one
+    private final ExecutorService ownPool;
+    private volatile boolean closing;
+    private final int maxConcurrency;
+    private final int queueCapacity;
+    private final ConcurrentLinkedQueue<Supplier<? extends CompletionStage<?>>> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+
+    CommandExecutor(ExecutionPolicy policy, Executor shared, String name) {
+        this.maxConcurrency = policy.maxConcurrency;
+        this.queueCapacity = policy.queueCapacity;
+        if (policy.pool == ExecutionPolicy.Pool.VIRTUAL && ExecutionPolicy.virtualThreadsSupported()) {
+            this.ownPool = ExecutionPolicy.newVirtualThreadExecutor();
+        } else if (policy.pool != ExecutionPolicy.Pool.SHARED) {
+            // also used for virtual threads on runtimes without them
+            this.ownPool = newPool(name, policy.maxConcurrency);
+        } else {
+            this.ownPool = null;
+        }
+        this.backing = ownPool != null ? ownPool : shared;
+    }
+
+    private static ExecutorService newPool(String name, int threads) {
+        AtomicInteger counter = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "BoneCmd-" + name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * @return false if the task was rejected
+     */
+    boolean submit(Supplier<? extends CompletionStage<?>> task) {
+        if (tryAcquire()) {
+            if (start(() -> drain(task))) return true;
+            rejected.increment();
+            return false;
+        }
+        if (queued.incrementAndGet() > queueCapacity) {
+            queued.decrementAndGet();
+            rejected.increment();
+            return false;
+        }
+        queue.offer(task);
+        // a worker may have finished between the failed acquire and the offer
+        if (tryAcquire() && !start(() -> drain(null)) && running.get() == 0 && queue.remove(task)) {
+            // the backing executor is full and no worker is left to get to the task
+            queued.decrementAndGet();
+            rejected.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Hands {@code worker} a permit already taken. If the backing executor refuses it, the permit is given back.
+     */
+    private boolean start(Runnable worker) {
+        try {
+            backing.execute(worker);
+            return true;
+        } catch (RejectedExecutionException e) {
+            running.decrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * Starts a worker for the queue with a permit already taken, trying again later while the backing executor is full.
+     */
+    private void resume() {
+        if (start(() -> drain(null)) || running.get() > 0 || queue.isEmpty()) return;
+        if (backing instanceof ExecutorService && ((ExecutorService) backing).isShutdown()) {
+            // the shard was unbound, nothing will run the queue anymore
+            while (poll() != null) rejected.increment();
+            return;
+        }
+        // no worker is left that would pick the queue up
+        Schedulers.timer().schedule(() -> {
+            if (!queue.isEmpty() && tryAcquire()) resume();
+        }, RETRY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private boolean tryAcquire() {
+        for (int n = running.get(); n < maxConcurrency; n = running.get()) {
+            if (running.compareAndSet(n, n + 1)) return true;
+        }
+        return false;
+    }
+
+    private void drain(Supplier<? extends CompletionStage<?>> first) {
+        Supplier<? extends CompletionStage<?>> task = first;
+        while (true) {
+            if (task == null) task = poll();
+            if (task == null) {
+                running.decrementAndGet();
+                // pick up tasks queued while this worker was giving up its permit
+                if (queue.isEmpty() || !tryAcquire()) {
+                    shutdownIfIdle();
+                    return;
+                }
+                continue;
+            }
+            CompletionStage<?> pending = null;
+            try {
+                pending = task.get();
+            } catch (RuntimeException e) {
+                Thread.currentThread().getUncaughtExceptionHandler().uncaughtException(Thread.currentThread(), e);
+            } catch (Error e) {
+                release();
+                throw e;
+            }
+            if (pending != null && !pending.toCompletableFuture().isDone()) {
+                // the permit stays taken until the task is really done, then a new worker carries on
+                pending.whenComplete((r, t) -> resume());
+                return;
+            }
+            task = null;
+        }
+    }
+
+    private void release() {
+        running.decrementAndGet();
+        if (!queue.isEmpty() && tryAcquire()) resume();
+        else shutdownIfIdle();
+    }
+
+    /**
+     * Lets the pool of its own die once the tasks taken so far are done. A shared pool is left alone.
+     */
+    void shutdown() {
+        closing = true;
+        shutdownIfIdle();
+    }
+
+    private void shutdownIfIdle() {
+        if (closing && ownPool != null && running.get() == 0 && queue.isEmpty()) ownPool.shutdown();
+    }
+
+    private Supplier<? extends CompletionStage<?>> poll() {
+        Supplier<? extends CompletionStage<?>> task = queue.poll();
+        if (task != null) queued.decrementAndGet();
+        return task;
+    }
+
+    int getQueueDepth() {
+        return queued.get();
+    }
+
+    int getRunning() {
+        return running.get();
+    }
+
+    long getRejected() {
+        return rejected.sum();
+    }
+}
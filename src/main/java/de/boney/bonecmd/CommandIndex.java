@@ -0,0 +1,127 @@
+package de.boney.bonecmd;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable char trie from command names and aliases to commands.
+ * Registration builds a new index, lookups walk the raw message without allocating.
+ */
+final class CommandIndex {
+    static final CommandIndex EMPTY = new CommandIndex(Collections.emptyMap(), Collections.emptyMap());
+
+    private final Map<String, Command> exactKeys;
+    private final Map<String, Command> foldedKeys;
+    private final Node exact;
+    private final Node folded;
+
+    private CommandIndex(Map<String, Command> exactKeys, Map<String, Command> foldedKeys) {
+        this.exactKeys = exactKeys;
+        this.foldedKeys = foldedKeys;
+        this.exact = build(exactKeys);
+        this.folded = build(foldedKeys);
+    }
+
+    /**
+     * Returns a copy of this index that also contains {@code cmd}, with every key of {@code replaced} dropped.
+     */
+    CommandIndex with(Command cmd, Command replaced) {
+        Map<String, Command> exactCopy = new HashMap<>(exactKeys);
+        Map<String, Command> foldedCopy = new HashMap<>(foldedKeys);
+        if (replaced != null) {
+            exactCopy.values().removeIf(c -> c == replaced);
+            foldedCopy.values().removeIf(c -> c == replaced);
+        }
+        Map<String, Command> target = cmd.isIgnoreCase() ? foldedCopy : exactCopy;
+        target.put(key(cmd, cmd.getName()), cmd);
+        for (String alias : cmd.getAliases()) {
+            target.put(key(cmd, alias), cmd);
+        }
+        return new CommandIndex(exactCopy, foldedCopy);
+    }
+
+    private static String key(Command cmd, String name) {
+        return cmd.isIgnoreCase() ? fold(name) : name;
+    }
+
+    Command find(String name) {
+        return find(name, 0, name.length());
+    }
+
+    /**
+     * Looks up the command whose name or alias is exactly {@code s[from, to)}.
+     * Case sensitive names take precedence over case insensitive ones.
+     */
+    Command find(CharSequence s, int from, int to) {
+        Command cmd = walk(exact, s, from, to, false);
+        return cmd != null ? cmd : walk(folded, s, from, to, true);
+    }
+
+    private static Command walk(Node node, CharSequence s, int from, int to, boolean fold) {
+        for (int i = from; i < to && node != null; i++) {
+            char c = s.charAt(i);
+            node = node.child(fold ? fold(c) : c);
+        }
+        return node == null ? null : node.command;
+    }
+
+    // the same equivalence String.equalsIgnoreCase uses
+    static char fold(char c) {
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    static String fold(String s) {
+        char[] chars = s.toCharArray();
+        for (int i = 0; i < chars.length; i++) chars[i] = fold(chars[i]);
+        return new String(chars);
+    }
+
+    private static Node build(Map<String, Command> keys) {
+        Builder root = new Builder();
+        keys.forEach((key, cmd) -> {
+            Builder b = root;
+            for (int i = 0; i < key.length(); i++) {
+                b = b.children.computeIfAbsent(key.charAt(i), c -> new Builder());
+            }
+            b.command = cmd;
+        });
+        return root.freeze();
+    }
+
+    private static final class Builder {
+        final TreeMap<Character, Builder> children = new TreeMap<>();
+        Command command;
+
+        Node freeze() {
+            char[] keys = new char[children.size()];
+            Node[] nodes = new Node[children.size()];
+            int i = 0;
+            for (Map.Entry<Character, Builder> e : children.entrySet()) {
+                keys[i] = e.getKey();
+                nodes[i] = e.getValue().freeze();
+                i++;
+            }
+            return new Node(keys, nodes, command);
+        }
+    }
+
+    private static final class Node {
+        final char[] keys;
+        final Node[] children;
+        final Command command;
+
+        Node(char[] keys, Node[] children, Command command) {
+            this.keys = keys;
+            this.children = children;
+            this.command = command;
+        }
+
+        Node child(char c) {
+            int i = Arrays.binarySearch(keys, c);
+            return i < 0 ? null : children[i];
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package de.boney.bonecmd;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies and counts of one command's invocations. Only recorded while metrics are enabled,
+ * see {@link CommandRegistry#enableMetrics(boolean)}.
+ */
+public final class CommandMetrics {
+    public enum Stage {
+        /** checking the user's permissions, including loading internal permission bits */
+        PERMISSION,
+        /** parsing the arguments */
+        PARSE,
+        /** waiting for an executor to pick the task up */
+        QUEUE_WAIT,
+        /** running the task, until its stage completes for asynchronous ones */
+        EXECUTION
+    }
+
+    private final Map<Stage, LatencyHistogram> latencies = new EnumMap<>(Stage.class);
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+    private final LongAdder throttles = new LongAdder();
+
+    CommandMetrics() {
+        for (Stage stage : Stage.values()) latencies.put(stage, new LatencyHistogram());
+    }
+
+    void record(Stage stage, long nanos) {
+        latencies.get(stage).record(nanos);
+    }
+
+    void error() {
+        errors.increment();
+    }
+
+    void rejection() {
+        rejections.increment();
+    }
+
+    void throttle() {
+        throttles.increment();
+    }
+
+    public LatencyHistogram getLatency(Stage stage) {
+        return latencies.get(stage);
+    }
+
+    /**
+     * @return how many tasks failed or timed out
+     */
+    public long getErrorCount() {
+        return errors.sum();
+    }
+
+    /**
+     * @return how many invocations were turned away because the command's executor was full
+     */
+    public long getRejectionCount() {
+        return rejections.sum();
+    }
+
+    /**
+     * @return how many invocations were dropped by the command's rate limits
+     */
+    public long getThrottleCount() {
+        return throttles.sum();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("runs=").append(latencies.get(Stage.EXECUTION).getCount())
+                .append(" errors=").append(getErrorCount())
+                .append(" rejected=").append(getRejectionCount())
+                .append(" throttled=").append(getThrottleCount());
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram h = latencies.get(stage);
+            if (h.getCount() == 0) continue;
+            sb.append(String.format("%n%s p50=%dus p99=%dus max=%dus", stage.name().toLowerCase(),
+                    h.getPercentile(0.5, TimeUnit.MICROSECONDS), h.getPercentile(0.99, TimeUnit.MICROSECONDS), h.getMax(TimeUnit.MICROSECONDS)));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,808 @@
+package de.boney.bonecmd;
+
+import org.javacord.api.DiscordApi;
+import org.javacord.api.entity.channel.TextChannel;
+import org.javacord.api.entity.message.embed.EmbedBuilder;
+import org.javacord.api.entity.server.Server;
+import org.javacord.api.entity.user.User;
+import org.javacord.api.event.message.MessageCreateEvent;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Commands, prefixes and macros, and the shards they run on. Each bound {@link DiscordApi} gets its own
+ * dispatch state: permission and member name caches, lanes, slow pool and execution policy executors.
+ * Command definitions are compiled once on registration and shared by all shards.
+ * The static methods of {@link Commands} use the {@link #getDefault() default registry}.
+ */
+public final class CommandRegistry {
+    final static String BUSY = "I'm busy, please try again later.";
+    private final static int HELP_PAGE_LINES = 20;
+    private final static int HELP_PAGE_LENGTH = 2048;
+    private final static CommandRegistry DEFAULT = new CommandRegistry();
+
+    private final ConcurrentHashMap<String, Command> commands = new ConcurrentHashMap<>();
+    private volatile CommandIndex index = CommandIndex.EMPTY;
+    // by permission profile, replaced whenever the set of commands changes
+    private volatile LruCache<PermissionCache.Profile, HelpSummary> helpSummaries = new LruCache<>(256, 0);
+    private final Prefixes prefixes = new Prefixes();
+    private final ConcurrentHashMap<DiscordApi, Shard> shards = new ConcurrentHashMap<>();
+    private volatile int laneCount = Runtime.getRuntime().availableProcessors() * 2;
+    private int slowPoolThreads = 4;
+    private int slowPoolQueueCapacity = 64;
+    private final Macros macros = new Macros();
+    private volatile boolean metricsEnabled;
+    private volatile MetricsListener metricsListener;
+    private volatile int maxMacroDepth = 8;
+    private volatile int maxMacroSteps = 50;
+    final Watchdog watchdog = new Watchdog();
+    // applied to every shard's permission cache, guarded by this
+    private int permissionCacheSize;
+    private long permissionCacheTtlNanos;
+    private volatile BiFunction<Server, User, Long> bitSupplier;
+    private volatile PermissionBitLoader bitLoader;
+
+    /**
+     * The registry behind {@link Commands}.
+     */
+    public static CommandRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Starts handling the messages of {@code api}. Every shard bound to a registry runs its commands,
+     * but keeps its own caches and executors. Binding a shard twice does nothing.
+     */
+    public synchronized void bind(DiscordApi api) {
+        if (shards.containsKey(api)) return;
+        Shard shard = new Shard(this, api);
+        if (permissionCacheSize > 0) shard.permissions.configure(permissionCacheSize, permissionCacheTtlNanos, TimeUnit.NANOSECONDS);
+        applyBitSource(shard.permissions);
+        shard.listen();
+        shards.put(api, shard);
+    }
+
+    /**
+     * Stops handling the messages of {@code api} and drops everything kept for it. Tasks already queued still run.
+     */
+    public synchronized void unbind(DiscordApi api) {
+        Shard shard = shards.remove(api);
+        if (shard != null) shard.close();
+    }
+
+    boolean isBound() {
+        return !shards.isEmpty();
+    }
+
+    /**
+     * @return the shard {@code api} is bound to, null if it isn't
+     */
+    Shard shard(DiscordApi api) {
+        return shards.get(api);
+    }
+
+    /**
+     * The permission cache of {@code server}'s shard. Only bound shards hear about permission changes,
+     * for other servers a fresh cache is returned that isn't kept.
+     */
+    PermissionCache permissions(Server server) {
+        Shard shard = shard(server.getApi());
+        if (shard != null) return shard.permissions;
+        PermissionCache permissions = new PermissionCache();
+        applyBitSource(permissions);
+        return permissions;
+    }
+
+    private void applyBitSource(PermissionCache permissions) {
+        BiFunction<Server, User, Long> supplier = bitSupplier;
+        PermissionBitLoader loader = bitLoader;
+        if (supplier != null) permissions.setBitSupplier(supplier);
+        if (loader != null) permissions.setBitLoader(loader);
+    }
+
+    private static Executor executor(Server server) {
+        return server.getApi().getThreadPool().getExecutorService();
+    }
+
+    public synchronized void setInternalPermissionBitSupplier(BiFunction<Server, User, Long> myPermissionBitSupplier) {
+        bitSupplier = myPermissionBitSupplier;
+        bitLoader = null;
+        for (Shard shard : shards.values()) shard.permissions.setBitSupplier(myPermissionBitSupplier);
+    }
+
+    /**
+     * Asynchronous alternative to {@link #setInternalPermissionBitSupplier(BiFunction)}.
+     * Lookups of the same member share one request, lookups within {@code window} of each other
+     * are passed to {@code loader} together, up to {@code maxBatchSize} at a time.
+     * Members missing from the returned map have no internal permission bits.
+     * All shards share the loader, so their lookups are batched together.
+     */
+    public synchronized void setInternalPermissionBitLoader(Function<Set<MemberKey>, CompletableFuture<Map<MemberKey, Long>>> loader, Duration window, int maxBatchSize) {
+        bitLoader = new PermissionBitLoader(loader, window.toNanos(), maxBatchSize);
+        bitSupplier = null;
+        for (Shard shard : shards.values()) shard.permissions.setBitLoader(bitLoader);
+    }
+
+    public void setInternalPermissionBitLoader(Function<Set<MemberKey>, CompletableFuture<Map<MemberKey, Long>>> loader) {
+        setInternalPermissionBitLoader(loader, Duration.ofMillis(5), 100);
+    }
+
+    /**
+     * Macro texts are compiled and cached, call {@link #invalidateMacro} when a macro changes.
+     */
+    public void setMacroTextSupplier(BiFunction<Server, String, String> myMacroTextSupplier) {
+        macros.setSupplier(myMacroTextSupplier);
+    }
+
+    public void configureMacroCache(int maxSize, long ttl, TimeUnit unit) {
+        macros.configure(maxSize, ttl, unit);
+    }
+
+    public void invalidateMacro(Server server, String name) {
+        macros.invalidate(server.getId(), name);
+    }
+
+    public void invalidateMacros(Server server) {
+        macros.invalidate(server.getId());
+    }
+
+    public void invalidateMacros() {
+        macros.invalidateAll();
+    }
+
+    /**
+     * @param maxDepth how deeply macros may call other macros
+     * @param maxSteps how many commands one macro may run in total, nested macros included
+     */
+    public void setMacroLimits(int maxDepth, int maxSteps) {
+        if (maxDepth <= 0 || maxSteps <= 0) throw new IllegalArgumentException("limits must be positive");
+        maxMacroDepth = maxDepth;
+        maxMacroSteps = maxSteps;
+    }
+
+    public CacheStats getMacroCacheStats() {
+        return macros.stats();
+    }
+
+    public void setDefaultPrefix(String prefix) {
+        prefixes.setDefault(prefix);
+    }
+
+    public void setPrefix(Server server, String prefix) {
+        setPrefix(server.getId(), prefix);
+    }
+
+    public void setPrefix(long serverId, String prefix) {
+        prefixes.set(serverId, prefix);
+    }
+
+    public void removePrefix(long serverId) {
+        prefixes.remove(serverId);
+    }
+
+    public String getPrefix(Server server) {
+        return prefixes.get(server.getId());
+    }
+
+    /**
+     * @return how many messages were turned away as non-commands by looking at their content only
+     */
+    public long getFastRejectCount() {
+        return prefixes.getRejected();
+    }
+
+    /**
+     * @return how many messages got past the fast check and needed a full prefix check
+     */
+    public long getFastPassCount() {
+        return prefixes.getPassed();
+    }
+
+    /**
+     * Sizes the permission cache of each shard.
+     */
+    public synchronized void configurePermissionCache(int maxSize, long ttl, TimeUnit unit) {
+        permissionCacheSize = maxSize;
+        permissionCacheTtlNanos = unit.toNanos(ttl);
+        for (Shard shard : shards.values()) shard.permissions.configure(maxSize, ttl, unit);
+    }
+
+    /**
+     * Drops the cached permissions of one user, e.g. after their internal permission bits changed.
+     */
+    public void invalidatePermissions(Server server, User user) {
+        for (Shard shard : shards.values()) shard.permissions.invalidate(server.getId(), user.getId());
+    }
+
+    public void invalidatePermissions(Server server) {
+        for (Shard shard : shards.values()) shard.permissions.invalidate(server.getId());
+    }
+
+    public void invalidatePermissions() {
+        for (Shard shard : shards.values()) shard.permissions.invalidateAll();
+    }
+
+    /**
+     * @return the totals of all shards
+     */
+    public CacheStats getPermissionCacheStats() {
+        CacheStats total = new CacheStats(0, 0, 0, 0);
+        for (Shard shard : shards.values()) total = total.plus(shard.permissions.stats());
+        return total;
+    }
+
+    /**
+     * Members whose user name or nickname starts with {@code prefix}, ignoring case.
+     */
+    public List<User> findMembersByPrefix(Server server, String prefix, int limit) {
+        Shard shard = shard(server.getApi());
+        // only bound shards keep their index up to date
+        MemberNameIndex memberNames = shard != null ? shard.memberNames : new MemberNameIndex();
+        return memberNames.findByPrefix(server, prefix, limit);
+    }
+
+    /**
+     * Sets how many serial lanes ordered commands are spread over on each shard.
+     * Takes effect on a shard before its first ordered command runs.
+     */
+    public void setLaneCount(int count) {
+        if (count <= 0) throw new IllegalArgumentException("count must be positive");
+        laneCount = count;
+    }
+
+    int getLaneCount() {
+        return laneCount;
+    }
+
+    /**
+     * @return the lanes of all shards
+     */
+    public List<LaneStats> getLaneStats() {
+        List<LaneStats> stats = new ArrayList<>();
+        for (Shard shard : shards.values()) stats.addAll(shard.laneStats());
+        return stats;
+    }
+
+    /**
+     * Sizes the pool that runs time consuming commands, each shard has one.
+     * Takes effect on a shard before its first such command runs.
+     */
+    public synchronized void configureSlowPool(int threads, int queueCapacity) {
+        if (threads <= 0 || queueCapacity < 0) throw new IllegalArgumentException("threads must be positive and queueCapacity not negative");
+        slowPoolThreads = threads;
+        slowPoolQueueCapacity = queueCapacity;
+    }
+
+    synchronized int getSlowPoolThreads() {
+        return slowPoolThreads;
+    }
+
+    synchronized int getSlowPoolQueueCapacity() {
+        return slowPoolQueueCapacity;
+    }
+
+    /**
+     * Watches tasks for running longer than {@code threshold}, or their command's expected duration if it has one.
+     * Their stack traces are kept, see {@link #getStalledTasks()}.
+     *
+     * @param threshold zero to only watch commands with an expected duration
+     * @param interrupt whether to interrupt tasks caught running too long
+     */
+    public void configureWatchdog(Duration threshold, boolean interrupt) {
+        watchdog.configure(threshold.toNanos(), interrupt);
+    }
+
+    /**
+     * @return the most recent tasks the watchdog caught running too long, oldest first
+     */
+    public List<StalledTask> getStalledTasks() {
+        return watchdog.reports();
+    }
+
+    public long getStalledCount() {
+        return watchdog.stalledCount();
+    }
+
+    /**
+     * Starts or stops recording per command latencies and counts, see {@link Command#getMetrics()}.
+     * While disabled, dispatch doesn't even read the clock.
+     */
+    public void enableMetrics(boolean enabled) {
+        metricsEnabled = enabled;
+    }
+
+    /**
+     * Also passes every measurement to {@code listener}, null to stop. Setting a listener enables metrics.
+     */
+    public void setMetricsListener(MetricsListener listener) {
+        metricsListener = listener;
+        if (listener != null) metricsEnabled = true;
+    }
+
+    /**
+     * A command listing the metrics of every command that has run, for registering under a name of your choice.
+     */
+    public Command statsCommand(String name) {
+        return new Command(name).tip("Shows how long commands take").runs(args -> {
+            StringBuilder sb = new StringBuilder();
+            if (!metricsEnabled) sb.append("Metrics are disabled.\n");
+            List<Command> sorted = new ArrayList<>(commands.values());
+            sorted.sort(Comparator.comparing(Command::getName));
+            for (Command cmd : sorted) {
+                CommandMetrics m = cmd.getMetrics();
+                if (m.getLatency(CommandMetrics.Stage.PERMISSION).getCount() == 0) continue;
+                sb.append("**").append(cmd.getName()).append("** ").append(m).append('\n');
+            }
+            if (sb.length() == 0) sb.append("Nothing has run yet.");
+            for (String chunk : MessageChunker.split(sb)) args.reply(chunk);
+        });
+    }
+
+    boolean isMetricsEnabled() {
+        return metricsEnabled;
+    }
+
+    void record(Command cmd, CommandMetrics.Stage stage, long start) {
+        long nanos = System.nanoTime() - start;
+        cmd.getMetrics().record(stage, nanos);
+        MetricsListener l = metricsListener;
+        if (l != null) l.onStage(cmd.getName(), stage, nanos);
+    }
+
+    void recordError(Command cmd, Throwable failure) {
+        cmd.getMetrics().error();
+        MetricsListener l = metricsListener;
+        if (l != null) l.onError(cmd.getName(), failure);
+    }
+
+    /**
+     * Takes a permit from the command's per user or other rate limits, recording a refusal.
+     */
+    boolean tryAcquire(Command cmd, Server server, User user, TextChannel channel, boolean perUser) {
+        if (cmd.tryAcquire(server, user, channel, perUser)) return true;
+        if (metricsEnabled) {
+            cmd.getMetrics().throttle();
+            MetricsListener l = metricsListener;
+            if (l != null) l.onThrottled(cmd.getName());
+        }
+        return false;
+    }
+
+    void recordRejection(Command cmd) {
+        if (!metricsEnabled) return;
+        cmd.getMetrics().rejection();
+        MetricsListener l = metricsListener;
+        if (l != null) l.onRejected(cmd.getName());
+    }
+
+    /**
+     * Commands are shared by all shards. One command may be registered with several registries.
+     */
+    public synchronized void registerCommand(final Command cmd) {
+        cmd.compile();
+        Command replaced = commands.put(cmd.getName(), cmd);
+        index = index.with(cmd, replaced);
+        helpSummaries = new LruCache<>(256, 0);
+    }
+
+    public String getTooltip(String command, Server server, User user) {
+        Command cmd = index.find(command);
+        return cmd != null ? cmd.getShortHelpMessage(permissions(server), server, user) : "Unknown command";
+    }
+
+    public String getHelp(String command, Server server, User user) {
+        Command cmd = index.find(command);
+        return cmd != null ? cmd.getHelpMessage(permissions(server), server, user) : "Unknown command";
+    }
+
+    /**
+     * The tooltips of all commands sorted by name, marking those the user can't use.
+     * Waits for the user's internal permission bits if they aren't loaded yet.
+     */
+    public String getTooltipSummary(Server server, User user) {
+        return helpSummary(server, user, null).join().text;
+    }
+
+    /**
+     * {@link #getTooltipSummary(Server, User)} without waiting for internal permission bits.
+     */
+    public CompletableFuture<String> getTooltipSummaryAsync(Server server, User user) {
+        return helpSummary(server, user, executor(server)).thenApply(summary -> summary.text);
+    }
+
+    /**
+     * {@link #getTooltipSummary(Server, User)} split into embeds that each fit a page.
+     */
+    public List<EmbedBuilder> getHelpPages(Server server, User user) {
+        return helpPages(helpSummary(server, user, null).join());
+    }
+
+    /**
+     * {@link #getHelpPages(Server, User)} without waiting for internal permission bits.
+     */
+    public CompletableFuture<List<EmbedBuilder>> getHelpPagesAsync(Server server, User user) {
+        return helpSummary(server, user, executor(server)).thenApply(CommandRegistry::helpPages);
+    }
+
+    private static List<EmbedBuilder> helpPages(HelpSummary summary) {
+        String[] pages = summary.pages;
+        List<EmbedBuilder> embeds = new ArrayList<>(pages.length);
+        for (int i = 0; i < pages.length; i++) {
+            embeds.add(new EmbedBuilder().setTitle("Commands").setDescription(pages[i]).setFooter("Page " + (i + 1) + "/" + pages.length));
+        }
+        return embeds;
+    }
+
+    /**
+     * @param executor where to load the bits and build the summary once they are there, null to do both on this thread
+     */
+    private CompletableFuture<HelpSummary> helpSummary(Server server, User user, Executor executor) {
+        PermissionCache permissions = permissions(server);
+        PermissionCache.Snapshot snapshot = permissions.get(server, user);
+        if (!permissions.hasBitSource()) return CompletableFuture.completedFuture(helpSummary(permissions, snapshot, server, user, 0));
+        CompletableFuture<Long> bits = snapshot.getBits(permissions, server, user, executor);
+        // bits loaded in the background complete on the loader's thread, don't build the summary there
+        if (bits.isDone() || executor == null) return bits.thenApply(b -> helpSummary(permissions, snapshot, server, user, b));
+        return bits.thenApplyAsync(b -> helpSummary(permissions, snapshot, server, user, b), executor);
+    }
+
+    private HelpSummary helpSummary(PermissionCache permissions, PermissionCache.Snapshot snapshot, Server server, User user, long bits) {
+        LruCache<PermissionCache.Profile, HelpSummary> cache = helpSummaries;
+        PermissionCache.Profile profile = snapshot.profile(bits);
+        HelpSummary summary = cache.get(profile);
+        if (summary == null) {
+            List<Command> sorted = new ArrayList<>(commands.values());
+            sorted.sort(Comparator.comparing(Command::getName));
+            List<String> lines = new ArrayList<>(sorted.size());
+            for (Command cmd : sorted) {
+                boolean allowed = !cmd.needsPermissionData(permissions) || cmd.checkPermissions(permissions, snapshot, server, user);
+                lines.add((allowed ? "" : "\uD83D\uDEAB ") + cmd.getShortHelpMessage());
+            }
+            summary = new HelpSummary(lines);
+            cache.put(profile, summary);
+        }
+        return summary;
+    }
+
+    private static final class HelpSummary {
+        final String text;
+        final String[] pages;
+
+        HelpSummary(List<String> lines) {
+            this.text = String.join("\n", lines);
+            List<String> pages = new ArrayList<>();
+            StringBuilder page = new StringBuilder();
+            int pageLines = 0;
+            for (String line : lines) {
+                if (pageLines > 0 && (pageLines == HELP_PAGE_LINES || page.length() + 1 + line.length() > HELP_PAGE_LENGTH)) {
+                    pages.add(page.toString());
+                    page.setLength(0);
+                    pageLines = 0;
+                }
+                if (pageLines > 0) page.append('\n');
+                page.append(line);
+                pageLines++;
+            }
+            if (pageLines > 0) pages.add(page.toString());
+            this.pages = pages.toArray(new String[0]);
+        }
+    }
+
+    void handleMessage(Shard shard, MessageCreateEvent event) {
+        final String content = event.getMessage().getContent();
+        if (prefixes.rejects(content)) return;
+        if (!event.getMessage().getUserAuthor().isPresent() || !event.getServer().isPresent()) return;
+        dispatch(content, shard, event.getServer().get(), event.getMessage().getUserAuthor().get(), event.getChannel());
+    }
+
+    /**
+     * Handles a message as if {@code api} had received it.
+     *
+     * @throws IllegalStateException if {@code api} isn't bound to this registry
+     */
+    public void handleMessage(String content, DiscordApi api, Server server, User user, TextChannel channel) {
+        if (prefixes.rejects(content)) return;
+        Shard shard = shard(api);
+        if (shard == null) throw new IllegalStateException("Not bound to this DiscordApi, call bind first");
+        dispatch(content, shard, server, user, channel);
+    }
+
+    private void dispatch(String content, Shard shard, Server server, User user, TextChannel channel) {
+        int prefixLength = prefixes.match(content, server.getId());
+        if (prefixLength < 0) return;
+        if (user.isBot()) return;
+        int nameEnd = nameEnd(content, prefixLength);
+        final Command cmd = index.find(content, prefixLength, nameEnd);
+        if (cmd != null) {
+            if (content.indexOf('|', nameEnd) >= 0 && dispatchPipe(content, nameEnd, cmd, shard, server, user, channel)) return;
+            if (!tryAcquire(cmd, server, user, channel, true)) return;
+            // take the place in the lane now, so a later message can't overtake this one while permissions load
+            final Lanes.Slot slot = cmd.getLaneKey() == null ? null : shard.lanes().reserve(laneKey(cmd, server, channel));
+            final int argsStart = nameEnd;
+            final boolean timed = metricsEnabled;
+            final long permissionStart = timed ? System.nanoTime() : 0;
+            final CompletableFuture<Boolean> check;
+            try {
+                check = cmd.checkPermissionsAsync(shard.permissions, server, user, shard.executor);
+            } catch (RuntimeException e) {
+                if (slot != null) slot.skip();
+                throw e;
+            }
+            final BiFunction<Boolean, Throwable, Void> proceed = (allowed, t) -> {
+                try {
+                    if (timed) record(cmd, CommandMetrics.Stage.PERMISSION, permissionStart);
+                    if (t != null) {
+                        channel.sendMessage("Error:\nCould not check your permissions.");
+                        return null;
+                    }
+                    if (!allowed) {
+                        channel.sendMessage("You don't have permission.");
+                        return null;
+                    }
+                    if (!tryAcquire(cmd, server, user, channel, false)) return null;
+                    final String[] err = new String[]{""};
+                    final long parseStart = timed ? System.nanoTime() : 0;
+                    final Arguments args = cmd.getArguments(shard, server, channel, user, content, argsStart, err);
+                    if (timed) record(cmd, CommandMetrics.Stage.PARSE, parseStart);
+                    if (!err[0].equals("")) {
+                        channel.sendMessage("Error:\n" + err[0]);
+                        return null;
+                    }
+                    final CollectingReplySink sink = cmd.getReplyWindowNanos() < 0 ? null : new CollectingReplySink(channel, cmd.getReplyWindowNanos());
+                    if (sink != null) args.replyTo(sink);
+                    final ResultCache cache = cmd.getResultCache();
+                    final ResultCache.Key key = cache == null ? null : cache.key(server, user, channel, args);
+                    final ResultCache.Recorder recorder;
+                    if (cache != null) {
+                        List<String> cached = cache.get(key);
+                        if (cached != null) {
+                            Runnable replay = () -> {
+                                ReplySink out = args.getReplySink();
+                                for (String reply : cached) out.send(reply);
+                                if (sink != null) sink.close();
+                            };
+                            if (slot != null) slot.run(replay);
+                            else replay.run();
+                            return null;
+                        }
+                        recorder = new ResultCache.Recorder(args.getReplySink());
+                        args.replyTo(recorder);
+                    } else {
+                        recorder = null;
+                    }
+                    final long queued = timed ? System.nanoTime() : 0;
+                    submit(cmd, cmd.isTimeConsuming(), shard, server, channel, slot, () -> {
+                        final long executionStart = timed ? System.nanoTime() : 0;
+                        if (timed) record(cmd, CommandMetrics.Stage.QUEUE_WAIT, queued);
+                        return cmd.start(watchdog, args).whenComplete((r, failure) -> {
+                            if (timed) record(cmd, CommandMetrics.Stage.EXECUTION, executionStart);
+                            if (failure != null) {
+                                if (timed) recordError(cmd, failure);
+                                if (sink != null) sink.send(Command.failureReply(failure));
+                                else channel.sendMessage(Command.failureReply(failure));
+                                report(failure);
+                            } else if (recorder != null) {
+                                cache.put(key, recorder);
+                            }
+                            if (sink != null) sink.close();
+                        });
+                    });
+                    return null;
+                } finally {
+                    // every way out that didn't fill the slot gives it up
+                    if (slot != null) slot.skip();
+                }
+            };
+            // bits loaded in the background complete on the loader's thread, don't parse and submit there
+            (check.isDone() ? check.handle(proceed) : check.handleAsync(proceed, shard.executor)).exceptionally(failure -> {
+                // parsing and submitting run in here, don't let their exceptions vanish with the future
+                report(failure);
+                return null;
+            });
+        } else { // maybe a macro?
+            String name = content.substring(prefixLength, nameEnd);
+            MacroTemplate macro = macros.get(server, name);
+            if (macro == null) return;
+
+            List<MacroJob.Step> steps = new ArrayList<>();
+            String error = expandMacro(server, user.getIdAsString(), name, macro, Tokens.tokenize(content, nameEnd, 0), new ArrayDeque<>(), steps);
+            if (error != null) {
+                channel.sendMessage("Error:\n" + error);
+                return;
+            }
+            if (steps.isEmpty()) return;
+            MacroJob job = new MacroJob(shard, server, user, channel, steps);
+            submitJob(job.commands(), shard, server, channel, job);
+        }
+    }
+
+    /**
+     * Splits {@code content} at every unquoted {@code |} token followed by a prefixed word and runs the stages as one job.
+     *
+     * @return false if {@code content} isn't a pipe after all
+     */
+    private boolean dispatchPipe(String content, int nameEnd, Command first, Shard shard, Server server, User user, TextChannel channel) {
+        List<PipelineJob.Stage> stages = new ArrayList<>();
+        int stageStart = 0;
+        int stageArgs = nameEnd;
+        Command stageCommand = first;
+        Tokens tokens = Tokens.acquire(content, nameEnd, 0);
+        try {
+            for (int i = 0; i + 1 < tokens.size(); i++) {
+                int start = tokens.start(i);
+                if (tokens.quoted(i) || tokens.end(i) != start + 1 || content.charAt(start) != '|') continue;
+                int nextStart = tokens.start(i + 1);
+                String next = content.substring(nextStart);
+                int prefixLength = prefixes.match(next, server.getId());
+                if (prefixLength < 0) continue;
+                int nextNameEnd = nameEnd(next, prefixLength);
+                Command cmd = index.find(next, prefixLength, nextNameEnd);
+                if (cmd == null) {
+                    channel.sendMessage("Error:\nUnknown command in pipe: " + next.substring(prefixLength, nextNameEnd));
+                    return true;
+                }
+                stages.add(new PipelineJob.Stage(stageCommand, stripTrailingSpace(content.substring(stageStart, start)), stageArgs - stageStart));
+                stageStart = nextStart;
+                stageArgs = nextStart + nextNameEnd;
+                stageCommand = cmd;
+            }
+        } finally {
+            tokens.release();
+        }
+        if (stages.isEmpty()) return false;
+        stages.add(new PipelineJob.Stage(stageCommand, content.substring(stageStart), stageArgs - stageStart));
+        // a throttled stage stops the pipe before it takes a thread, its shared limits wait for the permission check
+        for (PipelineJob.Stage stage : stages) {
+            if (!tryAcquire(stage.command, server, user, channel, true)) return true;
+        }
+        PipelineJob job = new PipelineJob(shard, server, user, channel, stages);
+        submitJob(job.commands(), shard, server, channel, job);
+        return true;
+    }
+
+    private static String stripTrailingSpace(String s) {
+        int end = s.length();
+        while (end > 0 && Tokens.isSpace(s.charAt(end - 1))) end--;
+        return s.substring(0, end);
+    }
+
+    /**
+     * Hands a task's exception to the uncaught exception handler, timeouts aren't worth reporting.
+     */
+    static void report(Throwable failure) {
+        Throwable cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+        if (cause instanceof TimeoutException) return;
+        Thread thread = Thread.currentThread();
+        thread.getUncaughtExceptionHandler().uncaughtException(thread, cause);
+    }
+
+    private static int nameEnd(String content, int prefixLength) {
+        int nameEnd = prefixLength;
+        while (nameEnd < content.length() && !Tokens.isSpace(content.charAt(nameEnd))) nameEnd++;
+        return nameEnd;
+    }
+
+    /**
+     * Appends the commands {@code macro} runs to {@code steps}, expanding nested macros in place.
+     *
+     * @return why the macro can't run, or null
+     */
+    private String expandMacro(Server server, String userId, String name, MacroTemplate macro, List<String> args, Deque<String> stack, List<MacroJob.Step> steps) {
+        if (stack.contains(name)) return "Macro " + name + " calls itself: " + String.join(" -> ", stack) + " -> " + name;
+        if (stack.size() >= maxMacroDepth) return "Macros are nested more than " + maxMacroDepth + " deep.";
+        stack.addLast(name);
+        for (int i = 0; i < macro.size(); i++) {
+            String line = macro.render(i, args, userId);
+            int prefixLength = prefixes.match(line, server.getId());
+            if (prefixLength < 0) continue;
+            int nameEnd = nameEnd(line, prefixLength);
+            Command cmd = index.find(line, prefixLength, nameEnd);
+            if (cmd != null) {
+                if (steps.size() >= maxMacroSteps) return "Macro " + stack.getFirst() + " runs more than " + maxMacroSteps + " commands.";
+                steps.add(new MacroJob.Step(cmd, line, nameEnd));
+                continue;
+            }
+            String innerName = line.substring(prefixLength, nameEnd);
+            MacroTemplate inner = macros.get(server, innerName);
+            if (inner == null) continue;
+            String error = expandMacro(server, userId, innerName, inner, Tokens.tokenize(line, nameEnd, 0), stack, steps);
+            if (error != null) return error;
+        }
+        stack.removeLast();
+        return null;
+    }
+
+    private static long laneKey(Command cmd, Server server, TextChannel channel) {
+        return cmd.getLaneKey() == Command.LaneKey.SERVER ? server.getId() : channel.getId();
+    }
+
+    /**
+     * Runs a job of several commands under the strictest lane or execution policy among them,
+     * on the slow pool if any of them is time consuming.
+     */
+    private void submitJob(List<Command> commands, Shard shard, Server server, TextChannel channel, Runnable job) {
+        Command strictest = commands.get(0);
+        boolean timeConsuming = false;
+        for (Command cmd : commands) {
+            if (stricter(cmd, strictest)) strictest = cmd;
+            timeConsuming |= cmd.isTimeConsuming();
+        }
+        submit(strictest, timeConsuming, shard, server, channel, null, () -> {
+            job.run();
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    // a server lane serializes more than a channel lane, which serializes more than any execution policy
+    private static boolean stricter(Command a, Command b) {
+        int laneA = laneRank(a.getLaneKey());
+        int laneB = laneRank(b.getLaneKey());
+        if (laneA != laneB) return laneA < laneB;
+        if (laneA < 2) return false;
+        ExecutionPolicy policyA = a.getExecutionPolicy();
+        ExecutionPolicy policyB = b.getExecutionPolicy();
+        return policyA != null && (policyB == null || policyA.maxConcurrency < policyB.maxConcurrency);
+    }
+
+    private static int laneRank(Command.LaneKey key) {
+        return key == null ? 2 : key == Command.LaneKey.SERVER ? 0 : 1;
+    }
+
+    /**
+     * @param timeConsuming whether the job belongs on the slow pool, unless it has a lane
+     * @param slot the lane place reserved for the job, null to take the next one now
+     * @param job returns when the command is done, it holds its execution policy's slot until then
+     */
+    private void submit(Command cmd, boolean timeConsuming, Shard shard, Server server, TextChannel channel, Lanes.Slot slot, Supplier<CompletionStage<?>> job) {
+        if (slot != null) {
+            slot.run(job::get);
+            return;
+        }
+        if (cmd.getLaneKey() != null) {
+            shard.lanes().execute(laneKey(cmd, server, channel), job::get);
+            return;
+        }
+        Executor shared = timeConsuming ? shard.slowPool() : shard.executor;
+        CommandExecutor executor = shard.commandExecutor(cmd, timeConsuming);
+        if (executor == null) {
+            try {
+                shared.execute(job::get);
+                return;
+            } catch (RejectedExecutionException e) {
+                recordRejection(cmd);
+                channel.sendMessage(BUSY);
+                return;
+            }
+        }
+        if (executor.submit(job)) return;
+        recordRejection(cmd);
+        switch (cmd.getExecutionPolicy().rejection) {
+            case REPLY_BUSY:
+                channel.sendMessage(BUSY);
+                break;
+            case RUN_INLINE:
+                job.get();
+                break;
+            default:
+                break;
+        }
+    }
+}
@@ -2,90 +2,180 @@ package de.boney.bonecmd;
 
 import org.javacord.api.DiscordApi;
 import org.javacord.api.entity.channel.TextChannel;
+import org.javacord.api.entity.message.embed.EmbedBuilder;
 import org.javacord.api.entity.server.Server;
 import org.javacord.api.entity.user.User;
-import org.javacord.api.event.message.MessageCreateEvent;
 
+import java.time.Duration;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.function.BiFunction;
-import java.util.stream.Collectors;
 
+/**
+ * Static shortcuts to the {@link CommandRegistry#getDefault() default registry}, see {@link CommandRegistry} for details.
+ */
 public class Commands {
-    private final static ConcurrentHashMap<String, Command> commands = new ConcurrentHashMap<>();
-    private static boolean listenerRegistered = false;
-    private static BiFunction<Server, String, String> macroTextSupplier;
+    private final static CommandRegistry registry = CommandRegistry.getDefault();
 
     public static void setMacroTextSupplier(BiFunction<Server, String, String> myMacroTextSupplier) {
-        macroTextSupplier = myMacroTextSupplier;
+        registry.setMacroTextSupplier(myMacroTextSupplier);
     }
 
+    public static void configureMacroCache(int maxSize, long ttl, TimeUnit unit) {
+        registry.configureMacroCache(maxSize, ttl, unit);
+    }
+
+    public static void invalidateMacro(Server server, String name) {
+        registry.invalidateMacro(server, name);
+    }
+
+    public static void invalidateMacros(Server server) {
+        registry.invalidateMacros(server);
+    }
+
+    public static void invalidateMacros() {
+        registry.invalidateMacros();
+    }
+
+    public static void setMacroLimits(int maxDepth, int maxSteps) {
+        registry.setMacroLimits(maxDepth, maxSteps);
+    }
+
+    public static CacheStats getMacroCacheStats() {
+        return registry.getMacroCacheStats();
+    }
+
+    public static void setDefaultPrefix(String prefix) {
+        registry.setDefaultPrefix(prefix);
+    }
+
+    public static void setPrefix(Server server, String prefix) {
+        registry.setPrefix(server, prefix);
+    }
+
+    public static void setPrefix(long serverId, String prefix) {
+        registry.setPrefix(serverId, prefix);
+    }
+
+    public static void removePrefix(long serverId) {
+        registry.removePrefix(serverId);
+    }
+
+    public static String getPrefix(Server server) {
+        return registry.getPrefix(server);
+    }
+
+    public static long getFastRejectCount() {
+        return registry.getFastRejectCount();
+    }
+
+    public static long getFastPassCount() {
+        return registry.getFastPassCount();
+    }
+
+    public static void configurePermissionCache(int maxSize, long ttl, TimeUnit unit) {
+        registry.configurePermissionCache(maxSize, ttl, unit);
+    }
+
+    public static void invalidatePermissions(Server server, User user) {
+        registry.invalidatePermissions(server, user);
+    }
+
+    public static void invalidatePermissions(Server server) {
+        registry.invalidatePermissions(server);
+    }
+
+    public static void invalidatePermissions() {
+        registry.invalidatePermissions();
+    }
+
+    public static CacheStats getPermissionCacheStats() {
+        return registry.getPermissionCacheStats();
+    }
+
+    public static List<User> findMembersByPrefix(Server server, String prefix, int limit) {
+        return registry.findMembersByPrefix(server, prefix, limit);
+    }
+
+    public static void setLaneCount(int count) {
+        registry.setLaneCount(count);
+    }
+
+    public static List<LaneStats> getLaneStats() {
+        return registry.getLaneStats();
+    }
+
+    public static void configureSlowPool(int threads, int queueCapacity) {
+        registry.configureSlowPool(threads, queueCapacity);
+    }
+
+    public static void configureWatchdog(Duration threshold, boolean interrupt) {
+        registry.configureWatchdog(threshold, interrupt);
+    }
+
+    public static List<StalledTask> getStalledTasks() {
+        return registry.getStalledTasks();
+    }
+
+    public static long getStalledCount() {
+        return registry.getStalledCount();
+    }
+
+    public static void enableMetrics(boolean enabled) {
+        registry.enableMetrics(enabled);
+    }
+
+    public static void setMetricsListener(MetricsListener listener) {
+        registry.setMetricsListener(listener);
+    }
+
+    public static Command statsCommand(String name) {
+        return registry.statsCommand(name);
+    }
+
+    /**
+     * @throws IllegalStateException if no shard was registered yet, see {@link #registerListener(DiscordApi)}
+     */
     public static void registerCommand(final Command cmd) {
-        if (!listenerRegistered) {
+        if (!registry.isBound()) {
             throw new IllegalStateException();
         }
-        commands.put(cmd.getName(), cmd);
+        registry.registerCommand(cmd);
     }
 
     public static String getTooltip(String command, Server server, User user) {
-        return commands.containsKey(command) ? commands.get(command).getShortHelpMessage(server, user) : "Unknown command";
+        return registry.getTooltip(command, server, user);
     }
 
     public static String getHelp(String command, Server server, User user) {
-        return commands.containsKey(command) ? commands.get(command).getHelpMessage(server, user) : "Unknown command";
+        return registry.getHelp(command, server, user);
     }
 
     public static String getTooltipSummary(Server server, User user) {
-        return commands.keySet().stream().map(x -> getTooltip(x, server, user)).collect(Collectors.joining("\n"));
+        return registry.getTooltipSummary(server, user);
+    }
+
+    public static List<EmbedBuilder> getHelpPages(Server server, User user) {
+        return registry.getHelpPages(server, user);
     }
 
-    private static void handleMessage(MessageCreateEvent event) {
-        if (!event.getMessage().getUserAuthor().isPresent() || !event.getServer().isPresent()) return;
-        handleMessage(event.getMessage().getContent(), event.getApi(), event.getServer().get(), event.getMessage().getUserAuthor().get(), event.getChannel());
+    public static CompletableFuture<String> getTooltipSummaryAsync(Server server, User user) {
+        return registry.getTooltipSummaryAsync(server, user);
+    }
+
+    public static CompletableFuture<List<EmbedBuilder>> getHelpPagesAsync(Server server, User user) {
+        return registry.getHelpPagesAsync(server, user);
     }
 
     public static void handleMessage(String content, DiscordApi api, Server server, User user, TextChannel channel) {
-        if (user.isBot()) return;
-        if (!content.startsWith("!")) return;
-        String commandName = content.substring(1);
-        if (commandName.contains(" ")) commandName = commandName.substring(0, content.indexOf(" ") - 1);
-        if (commands.containsKey(commandName)) {
-            final Command command = commands.get(commandName);
-            if (!command.checkPermissions(server, user)) {
-                channel.sendMessage("You don't have permission.");
-                return;
-            }
-            final String[] err = new String[]{""};
-            final Arguments args = command.getArguments(api, server, channel, user, content, err);
-            if (!err[0].equals("")) {
-                channel.sendMessage("Error:\n" + err[0]);
-                return;
-            }
-            final CommandTask task = command.getTask();
-            api.getThreadPool().getExecutorService().submit(() -> task.execute(args));
-        } else { // maybe a macro?
-            if (macroTextSupplier == null) return;
-            String macroText = macroTextSupplier.apply(server, commandName);
-            if (macroText == null) return;
-
-            List<String> args = Command.tokenize(content);
-            String[] commands;
-            if (macroText.contains(";")) commands = macroText.split(";");
-            else commands = new String[]{macroText};
-            for (String command : commands) {
-                for (int i = 0; i < args.size(); i++) {
-                    String r = "\\$" + (i + 1);
-                    command = command.replaceAll(r, args.get(i));
-                }
-                command = command.replaceAll("\\$user", user.getIdAsString());
-                handleMessage(command, api, server, user, channel);
-            }
-        }
+        registry.handleMessage(content, api, server, user, channel);
     }
 
+    /**
+     * Binds {@code api} to the default registry, call this once for every shard.
+     */
     public static void registerListener(DiscordApi api) {
-        if (listenerRegistered) return;
-        api.addMessageCreateListener(Commands::handleMessage);
-        listenerRegistered = true;
+        registry.bind(api);
     }
 }
@@ -0,0 +1,84 @@
+package de.boney.bonecmd;
+
+import org.javacord.api.DiscordApi;
+import org.javacord.api.entity.server.Server;
+import org.javacord.api.entity.user.User;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * An entity argument as the user typed it, a raw id or a name.
+ * It is looked up the first time the command asks for it and remembered from then on.
+ */
+final class EntityRef {
+    static final int USER_ID = 0;
+    static final int USER_NAME = 1;
+    static final int CHANNEL_ID = 2;
+
+    private final Server server;
+    private final MemberNameIndex memberNames;
+    private final int kind;
+    private final String key;
+    private volatile boolean resolved;
+    private volatile Object value;
+    private volatile CompletableFuture<Optional<User>> user;
+
+    EntityRef(Server server, MemberNameIndex memberNames, int kind, String key) {
+        this.server = server;
+        this.memberNames = memberNames;
+        this.kind = kind;
+        this.key = key;
+    }
+
+    /**
+     * What the user typed, normalized so that equal keys always find the same entity.
+     */
+    String normalizedKey() {
+        return kind == USER_NAME ? kind + ":" + CommandIndex.fold(key) : kind + ":" + key;
+    }
+
+    Object get() {
+        if (!resolved) {
+            value = resolve();
+            resolved = true;
+        }
+        return value;
+    }
+
+    private Object resolve() {
+        switch (kind) {
+            case USER_ID:
+                return server.getMemberById(key).orElse(null);
+            case USER_NAME:
+                return memberNames.findByName(server, key);
+            default:
+                return server.getChannelById(key).orElse(null);
+        }
+    }
+
+    /**
+     * Resolves a user argument without blocking. A raw id that doesn't belong to a cached member
+     * is fetched from Discord, so this may find users the synchronous lookup can't see.
+     */
+    CompletableFuture<Optional<User>> getUserAsync(DiscordApi api) {
+        CompletableFuture<Optional<User>> f = user;
+        if (f != null) return f;
+        User cached = (User) get();
+        if (cached != null || kind != USER_ID) {
+            f = CompletableFuture.completedFuture(Optional.ofNullable(cached));
+        } else {
+            long id;
+            try {
+                id = Long.parseLong(key);
+            } catch (NumberFormatException e) {
+                id = -1;
+            }
+            f = id < 0
+                    ? CompletableFuture.completedFuture(Optional.empty())
+                    : api.getUserById(id).handle((u, t) -> Optional.ofNullable(t == null ? u : null));
+        }
+        user = f;
+        return f;
+    }
+}
@@ -0,0 +1,86 @@
+package de.boney.bonecmd;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Limits how many invocations of a command run at once and how many may wait.
+ * The limits apply per shard, every shard a command is bound to runs and queues that many on its own.
+ * Macros and pipes that run on the slow pool because of another command count against a separate set of them.
+ */
+public final class ExecutionPolicy {
+    private static final MethodHandle NEW_VIRTUAL_THREAD_EXECUTOR = findVirtualThreadExecutor();
+
+    final int maxConcurrency;
+    final int queueCapacity;
+    Rejection rejection = Rejection.REPLY_BUSY;
+    Pool pool = Pool.SHARED;
+
+    private ExecutionPolicy(int maxConcurrency, int queueCapacity) {
+        if (maxConcurrency <= 0) throw new IllegalArgumentException("maxConcurrency must be positive");
+        if (queueCapacity < 0) throw new IllegalArgumentException("queueCapacity must not be negative");
+        this.maxConcurrency = maxConcurrency;
+        this.queueCapacity = queueCapacity;
+    }
+
+    public static ExecutionPolicy bounded(int maxConcurrency, int queueCapacity) {
+        return new ExecutionPolicy(maxConcurrency, queueCapacity);
+    }
+
+    public ExecutionPolicy onReject(Rejection rejection) {
+        this.rejection = rejection;
+        return this;
+    }
+
+    /**
+     * Runs the command on its own threads instead of Javacord's pool.
+     */
+    public ExecutionPolicy dedicatedPool() {
+        this.pool = Pool.DEDICATED;
+        return this;
+    }
+
+    /**
+     * Runs the command on virtual threads, or on a dedicated pool if the runtime has none.
+     */
+    public ExecutionPolicy virtualThreads() {
+        this.pool = Pool.VIRTUAL;
+        return this;
+    }
+
+    public static boolean virtualThreadsSupported() {
+        return NEW_VIRTUAL_THREAD_EXECUTOR != null;
+    }
+
+    static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) NEW_VIRTUAL_THREAD_EXECUTOR.invoke();
+        } catch (Throwable t) {
+            throw new IllegalStateException("Could not create a virtual thread executor", t);
+        }
+    }
+
+    private static MethodHandle findVirtualThreadExecutor() {
+        try {
+            return MethodHandles.publicLookup().findStatic(Executors.class, "newVirtualThreadPerTaskExecutor", MethodType.methodType(ExecutorService.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    public enum Rejection {
+        /** Tell the invoking channel the command is busy. */
+        REPLY_BUSY,
+        /** Silently drop the invocation. */
+        DROP,
+        /** Run the invocation on the dispatching thread. */
+        RUN_INLINE
+    }
+
+    enum Pool {
+        SHARED, DEDICATED, VIRTUAL
+    }
+}
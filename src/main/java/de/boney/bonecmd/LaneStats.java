@@ -0,0 +1,59 @@
+package de.boney.bonecmd;
+
+import java.util.concurrent.TimeUnit;
+
+public final class LaneStats {
+    private final int lane;
+    private final int queueDepth;
+    private final long tasks;
+    private final long totalWaitNanos;
+    private final long maxWaitNanos;
+    private final long busyNanos;
+    private final long elapsedNanos;
+
+    LaneStats(int lane, int queueDepth, long tasks, long totalWaitNanos, long maxWaitNanos, long busyNanos, long elapsedNanos) {
+        this.lane = lane;
+        this.queueDepth = queueDepth;
+        this.tasks = tasks;
+        this.totalWaitNanos = totalWaitNanos;
+        this.maxWaitNanos = maxWaitNanos;
+        this.busyNanos = busyNanos;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public int getLane() {
+        return lane;
+    }
+
+    /**
+     * @return tasks waiting or running on this lane
+     */
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    public long getTasks() {
+        return tasks;
+    }
+
+    public long getAverageWait(TimeUnit unit) {
+        return tasks == 0 ? 0 : unit.convert(totalWaitNanos / tasks, TimeUnit.NANOSECONDS);
+    }
+
+    public long getMaxWait(TimeUnit unit) {
+        return unit.convert(maxWaitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return the share of time since the lanes were created that this lane spent running tasks
+     */
+    public double getUtilization() {
+        return elapsedNanos == 0 ? 0 : (double) busyNanos / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("lane %d: depth=%d tasks=%d avgWait=%dus maxWait=%dus utilization=%.1f%%",
+                lane, queueDepth, tasks, getAverageWait(TimeUnit.MICROSECONDS), getMaxWait(TimeUnit.MICROSECONDS), getUtilization() * 100);
+    }
+}
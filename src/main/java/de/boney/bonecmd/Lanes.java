@@ -0,0 +1,142 @@
+package de.boney.bonecmd;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed set of serial executors. Tasks with the same key always land on the same lane
+ * and run one after another in submission order; different lanes run in parallel.
+ * A place in a lane can be reserved before its task is known, the lane waits for it.
+ */
+final class Lanes {
+    /**
+     * A reserved place in a lane, filled by {@link #run(Runnable)} or given up by {@link #skip()}.
+     */
+    static final class Slot {
+        private final Lane lane;
+        private final long enqueuedAt = System.nanoTime();
+        // guarded by lane
+        private Runnable task;
+        private boolean ready;
+
+        private Slot(Lane lane) {
+            this.lane = lane;
+        }
+
+        void run(Runnable task) {
+            lane.fill(this, task);
+        }
+
+        /**
+         * Lets the tasks behind this slot go ahead. Does nothing if the slot was already filled.
+         */
+        void skip() {
+            lane.fill(this, null);
+        }
+    }
+
+    private static final class Lane {
+        final Executor backing;
+        // guarded by this
+        final ArrayDeque<Slot> queue = new ArrayDeque<>();
+        private boolean draining;
+        final LongAdder tasks = new LongAdder();
+        final LongAdder waitNanos = new LongAdder();
+        final AtomicLong maxWaitNanos = new AtomicLong();
+        final LongAdder busyNanos = new LongAdder();
+
+        Lane(Executor backing) {
+            this.backing = backing;
+        }
+
+        synchronized Slot reserve() {
+            Slot slot = new Slot(this);
+            queue.add(slot);
+            return slot;
+        }
+
+        void fill(Slot slot, Runnable task) {
+            synchronized (this) {
+                if (slot.ready) return;
+                slot.task = task;
+                slot.ready = true;
+                // only the filler of the slot at the head of an idle lane starts a drain
+                if (draining || queue.peek() != slot) return;
+                draining = true;
+            }
+            backing.execute(this::drain);
+        }
+
+        private synchronized Slot next() {
+            Slot head = queue.peek();
+            if (head == null || !head.ready) {
+                draining = false;
+                return null;
+            }
+            return queue.poll();
+        }
+
+        private void drain() {
+            Slot next;
+            while ((next = next()) != null) {
+                if (next.task == null) continue;
+                long start = System.nanoTime();
+                long wait = start - next.enqueuedAt;
+                waitNanos.add(wait);
+                maxWaitNanos.accumulateAndGet(wait, Math::max);
+                try {
+                    next.task.run();
+                } catch (RuntimeException e) {
+                    Thread.currentThread().getUncaughtExceptionHandler().uncaughtException(Thread.currentThread(), e);
+                } catch (Error e) {
+                    // hand the rest of the lane to a fresh drain, or nothing would ever drain it again
+                    backing.execute(this::drain);
+                    throw e;
+                } finally {
+                    tasks.increment();
+                    busyNanos.add(System.nanoTime() - start);
+                }
+            }
+        }
+
+        synchronized int depth() {
+            return queue.size();
+        }
+    }
+
+    private final Lane[] lanes;
+    private final long createdAt = System.nanoTime();
+
+    Lanes(int count, Executor backing) {
+        if (count <= 0) throw new IllegalArgumentException("count must be positive");
+        lanes = new Lane[count];
+        for (int i = 0; i < count; i++) lanes[i] = new Lane(backing);
+    }
+
+    void execute(long key, Runnable task) {
+        reserve(key).run(task);
+    }
+
+    /**
+     * Takes the next place in {@code key}'s lane. Every slot must be run or skipped, or its lane stops.
+     */
+    Slot reserve(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        int i = (int) ((h ^ (h >>> 32)) & 0x7FFFFFFF) % lanes.length;
+        return lanes[i].reserve();
+    }
+
+    List<LaneStats> stats() {
+        long elapsed = System.nanoTime() - createdAt;
+        List<LaneStats> stats = new ArrayList<>(lanes.length);
+        for (int i = 0; i < lanes.length; i++) {
+            Lane lane = lanes[i];
+            stats.add(new LaneStats(i, lane.depth(), lane.tasks.sum(), lane.waitNanos.sum(), lane.maxWaitNanos.get(), lane.busyNanos.sum(), elapsed));
+        }
+        return stats;
+    }
+}
@@ -0,0 +1,104 @@
+package de.boney.bonecmd;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * The lines between two stages of a pipe. A writer that gets ahead of its reader by more than
+ * the capacity waits. Either side may give up early, the other one gets a {@link Closed}.
+ */
+final class LinePipe {
+    /**
+     * Stops a writer whose reader gave up, or a reader whose writer failed. The stage that gave up reports why.
+     */
+    static final class Closed extends RuntimeException {
+        Closed() {
+            super("The other end of the pipe gave up", null, false, false);
+        }
+    }
+
+    // compared by identity, a stage may write the same text
+    private static final String END = new String("END");
+    // how often a waiting writer looks whether the reader is still there
+    private static final long RECHECK_MILLIS = 50;
+
+    private final BlockingQueue<String> queue;
+    private volatile boolean readerClosed;
+    private volatile boolean writerFailed;
+
+    LinePipe(int capacity) {
+        queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    void write(String line) {
+        if (!offer(line)) throw new Closed();
+    }
+
+    /**
+     * Ends the reader's input. If {@code failed}, the reader gets a {@link Closed} instead of the end.
+     */
+    void closeWriter(boolean failed) {
+        writerFailed = failed;
+        offer(END);
+    }
+
+    /**
+     * Drops what is left and makes further writes fail.
+     */
+    void closeReader() {
+        readerClosed = true;
+        queue.clear();
+    }
+
+    private boolean offer(String line) {
+        try {
+            while (!readerClosed) {
+                if (queue.offer(line, RECHECK_MILLIS, TimeUnit.MILLISECONDS)) return true;
+            }
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while writing to a pipe", e);
+        }
+    }
+
+    /**
+     * The lines written so far and the ones still to come. Can only be read once.
+     */
+    Stream<String> lines() {
+        Iterator<String> iterator = new Iterator<String>() {
+            private String next;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null) {
+                    try {
+                        next = queue.take();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IllegalStateException("Interrupted while reading from a pipe", e);
+                    }
+                }
+                if (next != END) return true;
+                if (writerFailed) throw new Closed();
+                return false;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                String line = next;
+                next = null;
+                return line;
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+}
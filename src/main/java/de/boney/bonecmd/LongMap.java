@@ -0,0 +1,83 @@
+package de.boney.bonecmd;
+
+import java.util.function.Consumer;
+
+/**
+ * Immutable open addressing map from primitive longs to values.
+ * Writes return a modified copy, so readers never lock and never see a partial update.
+ */
+final class LongMap<V> {
+    private static final LongMap<?> EMPTY = new LongMap<>(8);
+
+    private final long[] keys;
+    private final Object[] values;
+    private int size;
+
+    private LongMap(int capacity) {
+        this.keys = new long[capacity];
+        this.values = new Object[capacity];
+    }
+
+    @SuppressWarnings("unchecked")
+    static <V> LongMap<V> empty() {
+        return (LongMap<V>) EMPTY;
+    }
+
+    int size() {
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(long key) {
+        int mask = keys.length - 1;
+        for (int i = slot(key, mask); values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) return (V) values[i];
+        }
+        return null;
+    }
+
+    LongMap<V> with(long key, V value) {
+        if (value == null) throw new NullPointerException();
+        int capacity = keys.length;
+        // keep the load factor at or below one half
+        if ((size + 1) * 2 > capacity) capacity *= 2;
+        LongMap<V> copy = copy(capacity, key, false);
+        copy.put(key, value);
+        return copy;
+    }
+
+    LongMap<V> without(long key) {
+        if (get(key) == null) return this;
+        return copy(keys.length, key, true);
+    }
+
+    @SuppressWarnings("unchecked")
+    void forEachValue(Consumer<V> action) {
+        for (Object value : values) {
+            if (value != null) action.accept((V) value);
+        }
+    }
+
+    private LongMap<V> copy(int capacity, long skipKey, boolean skip) {
+        LongMap<V> copy = new LongMap<>(capacity);
+        for (int i = 0; i < keys.length; i++) {
+            if (values[i] != null && !(skip && keys[i] == skipKey)) copy.put(keys[i], values[i]);
+        }
+        return copy;
+    }
+
+    // only used while building a copy that hasn't been published yet
+    private void put(long key, Object value) {
+        int mask = keys.length - 1;
+        int i = slot(key, mask);
+        while (values[i] != null && keys[i] != key) i = (i + 1) & mask;
+        if (values[i] == null) size++;
+        keys[i] = key;
+        values[i] = value;
+    }
+
+    private static int slot(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
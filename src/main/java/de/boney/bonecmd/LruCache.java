@@ -0,0 +1,99 @@
+package de.boney.bonecmd;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * Size bounded, least recently used cache with an optional time to live per entry.
+ */
+final class LruCache<K, V> {
+    private static final class Item<V> {
+        final V value;
+        final long expiresAt;
+
+        Item(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final int maxSize;
+    private final long ttlNanos;
+    private final LinkedHashMap<K, Item<V>> map;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param ttlNanos time to live of an entry, 0 to keep entries until they are evicted
+     */
+    LruCache(int maxSize, long ttlNanos) {
+        if (maxSize <= 0) throw new IllegalArgumentException("maxSize must be positive");
+        this.maxSize = maxSize;
+        this.ttlNanos = ttlNanos;
+        this.map = new LinkedHashMap<K, Item<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Item<V>> eldest) {
+                if (size() <= LruCache.this.maxSize) return false;
+                evictions.increment();
+                return true;
+            }
+        };
+    }
+
+    V get(K key) {
+        Item<V> item;
+        synchronized (map) {
+            item = map.get(key);
+            if (item != null && ttlNanos > 0 && System.nanoTime() - item.expiresAt > 0) {
+                map.remove(key);
+                item = null;
+            }
+        }
+        if (item == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return item.value;
+    }
+
+    void put(K key, V value) {
+        Item<V> item = new Item<>(value, ttlNanos > 0 ? System.nanoTime() + ttlNanos : 0);
+        synchronized (map) {
+            map.put(key, item);
+        }
+    }
+
+    void remove(K key) {
+        synchronized (map) {
+            map.remove(key);
+        }
+    }
+
+    void removeIf(Predicate<K> predicate) {
+        synchronized (map) {
+            Iterator<K> it = map.keySet().iterator();
+            while (it.hasNext()) {
+                if (predicate.test(it.next())) it.remove();
+            }
+        }
+    }
+
+    void clear() {
+        synchronized (map) {
+            map.clear();
+        }
+    }
+
+    CacheStats stats() {
+        int size;
+        synchronized (map) {
+            size = map.size();
+        }
+        return new CacheStats(hits.sum(), misses.sum(), evictions.sum(), size);
+    }
+}
@@ -0,0 +1,99 @@
+package de.boney.bonecmd;
+
+import org.javacord.api.entity.channel.TextChannel;
+import org.javacord.api.entity.server.Server;
+import org.javacord.api.entity.user.User;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The commands a macro expanded to, run one after another as a single job.
+ * Steps share one permission snapshot and one collected reply. The macro as a whole runs
+ * under the strictest lane or execution policy among its steps.
+ */
+final class MacroJob implements Runnable {
+    static final class Step {
+        final Command command;
+        final String content;
+        final int argsStart;
+
+        Step(Command command, String content, int argsStart) {
+            this.command = command;
+            this.content = content;
+            this.argsStart = argsStart;
+        }
+    }
+
+    private final Shard shard;
+    private final Server server;
+    private final User user;
+    private final TextChannel channel;
+    private final List<Step> steps;
+
+    MacroJob(Shard shard, Server server, User user, TextChannel channel, List<Step> steps) {
+        this.shard = shard;
+        this.server = server;
+        this.user = user;
+        this.channel = channel;
+        this.steps = steps;
+    }
+
+    List<Command> commands() {
+        List<Command> commands = new ArrayList<>(steps.size());
+        for (Step step : steps) commands.add(step.command);
+        return commands;
+    }
+
+    @Override
+    public void run() {
+        CommandRegistry registry = shard.registry;
+        CollectingReplySink sink = new CollectingReplySink(channel);
+        PermissionCache.Snapshot snapshot = null;
+        try {
+            for (Step step : steps) {
+                Command cmd = step.command;
+                if (!registry.tryAcquire(cmd, server, user, channel, true)) continue;
+                boolean timed = registry.isMetricsEnabled();
+                long permissionStart = timed ? System.nanoTime() : 0;
+                String denied = null;
+                if (cmd.needsPermissionData(shard.permissions)) {
+                    try {
+                        if (snapshot == null) snapshot = shard.permissions.get(server, user);
+                        if (!cmd.checkPermissions(shard.permissions, snapshot, server, user)) denied = "You don't have permission.";
+                    } catch (RuntimeException e) {
+                        denied = "Error:\nCould not check your permissions.";
+                    }
+                }
+                if (timed) registry.record(cmd, CommandMetrics.Stage.PERMISSION, permissionStart);
+                if (denied != null) {
+                    sink.send(denied);
+                    continue;
+                }
+                if (!registry.tryAcquire(cmd, server, user, channel, false)) continue;
+                String[] err = new String[]{""};
+                long parseStart = timed ? System.nanoTime() : 0;
+                Arguments args = cmd.getArguments(shard, server, channel, user, step.content, step.argsStart, err);
+                if (timed) registry.record(cmd, CommandMetrics.Stage.PARSE, parseStart);
+                if (!err[0].equals("")) {
+                    sink.send("Error:\n" + err[0]);
+                    continue;
+                }
+                args.replyTo(sink);
+                long executionStart = timed ? System.nanoTime() : 0;
+                try {
+                    cmd.start(registry.watchdog, args).join();
+                } catch (RuntimeException e) {
+                    // one failing step doesn't stop the rest of the macro
+                    if (timed) registry.recordError(cmd, e);
+                    sink.send(Command.failureReply(e));
+                    CommandRegistry.report(e);
+                } finally {
+                    if (timed) registry.record(cmd, CommandMetrics.Stage.EXECUTION, executionStart);
+                }
+            }
+        } finally {
+            sink.close();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package de.boney.bonecmd;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Macro text compiled into its sub-commands, each a run of literal segments and placeholders.
+ * {@code $1}, {@code $2}, ... take the macro's arguments, {@code $user} the invoking user's id.
+ * A numbered placeholder without a matching argument is kept as written.
+ */
+final class MacroTemplate {
+    private static final int USER = -1;
+
+    private static final class Part {
+        // literals[i] comes before slots[i], the last literal has no slot after it
+        final String[] literals;
+        final int[] slots;
+        final String[] placeholders;
+
+        Part(List<String> literals, List<Integer> slots, List<String> placeholders) {
+            this.literals = literals.toArray(new String[0]);
+            this.slots = new int[slots.size()];
+            for (int i = 0; i < this.slots.length; i++) this.slots[i] = slots.get(i);
+            this.placeholders = placeholders.toArray(new String[0]);
+        }
+    }
+
+    private final Part[] parts;
+
+    private MacroTemplate(Part[] parts) {
+        this.parts = parts;
+    }
+
+    static MacroTemplate compile(String text) {
+        String[] commands = text.split(";");
+        Part[] parts = new Part[commands.length];
+        for (int i = 0; i < commands.length; i++) parts[i] = compilePart(commands[i]);
+        return new MacroTemplate(parts);
+    }
+
+    private static Part compilePart(String command) {
+        List<String> literals = new ArrayList<>();
+        List<Integer> slots = new ArrayList<>();
+        List<String> placeholders = new ArrayList<>();
+        int literalStart = 0;
+        int i = 0;
+        while (i < command.length()) {
+            if (command.charAt(i) != '$') {
+                i++;
+                continue;
+            }
+            int end = i + 1;
+            while (end < command.length() && command.charAt(end) >= '0' && command.charAt(end) <= '9') end++;
+            int slot;
+            if (end > i + 1 && end - i <= 10) {
+                slot = Integer.parseInt(command.substring(i + 1, end)) - 1;
+                if (slot < 0) { // $0 isn't a placeholder
+                    i = end;
+                    continue;
+                }
+            } else if (command.startsWith("user", i + 1)) {
+                end = i + 5;
+                slot = USER;
+            } else {
+                i++;
+                continue;
+            }
+            literals.add(command.substring(literalStart, i));
+            slots.add(slot);
+            placeholders.add(command.substring(i, end));
+            literalStart = i = end;
+        }
+        literals.add(command.substring(literalStart));
+        return new Part(literals, slots, placeholders);
+    }
+
+    int size() {
+        return parts.length;
+    }
+
+    String render(int part, List<String> args, String userId) {
+        Part p = parts[part];
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < p.slots.length; i++) {
+            sb.append(p.literals[i]);
+            int slot = p.slots[i];
+            if (slot == USER) sb.append(userId);
+            else if (slot < args.size()) sb.append(args.get(slot));
+            else sb.append(p.placeholders[i]);
+        }
+        return sb.append(p.literals[p.slots.length]).toString();
+    }
+}
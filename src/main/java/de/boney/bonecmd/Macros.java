@@ -0,0 +1,82 @@
+package de.boney.bonecmd;
+
+import org.javacord.api.entity.server.Server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+/**
+ * Looks up macros through the user's supplier and caches the compiled templates per server and name.
+ * Names without a macro are cached too, so mistyped commands don't hit the supplier every time.
+ */
+final class Macros {
+    private static final MacroTemplate NONE = MacroTemplate.compile("");
+
+    private static final class Key {
+        final long serverId;
+        final String name;
+
+        Key(long serverId, String name) {
+            this.serverId = serverId;
+            this.name = name;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return serverId == other.serverId && name.equals(other.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(serverId) * 31 + name.hashCode();
+        }
+    }
+
+    private volatile BiFunction<Server, String, String> supplier;
+    private volatile LruCache<Key, MacroTemplate> cache = new LruCache<>(1_000, TimeUnit.MINUTES.toNanos(5));
+
+    void setSupplier(BiFunction<Server, String, String> supplier) {
+        this.supplier = supplier;
+        invalidateAll();
+    }
+
+    void configure(int maxSize, long ttl, TimeUnit unit) {
+        cache = new LruCache<>(maxSize, unit.toNanos(ttl));
+    }
+
+    /**
+     * @return the compiled macro, or null if {@code name} isn't a macro on this server
+     */
+    MacroTemplate get(Server server, String name) {
+        BiFunction<Server, String, String> s = supplier;
+        if (s == null) return null;
+        LruCache<Key, MacroTemplate> c = cache;
+        Key key = new Key(server.getId(), name);
+        MacroTemplate template = c.get(key);
+        if (template == null) {
+            String text = s.apply(server, name);
+            template = text == null ? NONE : MacroTemplate.compile(text);
+            c.put(key, template);
+        }
+        return template == NONE ? null : template;
+    }
+
+    void invalidate(long serverId, String name) {
+        cache.remove(new Key(serverId, name));
+    }
+
+    void invalidate(long serverId) {
+        cache.removeIf(key -> key.serverId == serverId);
+    }
+
+    void invalidateAll() {
+        cache.clear();
+    }
+
+    CacheStats stats() {
+        return cache.stats();
+    }
+}
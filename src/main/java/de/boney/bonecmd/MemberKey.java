@@ -0,0 +1,40 @@
+package de.boney.bonecmd;
+
+/**
+ * A user in the context of a server.
+ */
+public final class MemberKey {
+    final long serverId;
+    final long userId;
+
+    public MemberKey(long serverId, long userId) {
+        this.serverId = serverId;
+        this.userId = userId;
+    }
+
+    public long getServerId() {
+        return serverId;
+    }
+
+    public long getUserId() {
+        return userId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof MemberKey)) return false;
+        MemberKey other = (MemberKey) o;
+        return serverId == other.serverId && userId == other.userId;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(serverId) * 31 + Long.hashCode(userId);
+    }
+
+    @Override
+    public String toString() {
+        return serverId + "/" + userId;
+    }
+}
@@ -0,0 +1,167 @@
+package de.boney.bonecmd;
+
+import org.javacord.api.DiscordApi;
+import org.javacord.api.entity.server.Server;
+import org.javacord.api.entity.user.User;
+import org.javacord.api.util.event.ListenerManager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Per-server index from case folded user names and nicknames to member ids.
+ * An index is built the first time its server is searched and kept current by member events.
+ * Hits are verified against the live member, misses fall back to Javacord's linear search.
+ */
+final class MemberNameIndex {
+    private static final long[] NONE = new long[0];
+
+    private static final class ServerIndex {
+        final ConcurrentHashMap<String, long[]> byName = new ConcurrentHashMap<>();
+        final ConcurrentSkipListMap<String, long[]> byNamePrefix = new ConcurrentSkipListMap<>();
+        final ConcurrentSkipListMap<String, long[]> byNicknamePrefix = new ConcurrentSkipListMap<>();
+        // user id -> {folded name, folded nickname or null}, to unindex members cleanly
+        final ConcurrentHashMap<Long, String[]> keys = new ConcurrentHashMap<>();
+
+        void add(Server server, User user) {
+            add(user.getId(), user.getName(), user.getNickname(server).orElse(null));
+        }
+
+        synchronized void add(long userId, String rawName, String rawNickname) {
+            remove(userId);
+            String name = CommandIndex.fold(rawName);
+            String nickname = rawNickname == null ? null : CommandIndex.fold(rawNickname);
+            keys.put(userId, new String[]{name, nickname});
+            long[] ids = append(byName.get(name), userId);
+            byName.put(name, ids);
+            byNamePrefix.put(name, ids);
+            if (nickname != null) byNicknamePrefix.put(nickname, append(byNicknamePrefix.get(nickname), userId));
+        }
+
+        synchronized void rename(long userId, String rawName) {
+            String[] old = keys.get(userId);
+            if (old == null) return;
+            add(userId, rawName, old[1]); // folding an already folded nickname keeps it as is
+        }
+
+        synchronized void remove(long userId) {
+            String[] old = keys.remove(userId);
+            if (old == null) return;
+            long[] ids = without(byName.get(old[0]), userId);
+            if (ids == null) {
+                byName.remove(old[0]);
+                byNamePrefix.remove(old[0]);
+            } else {
+                byName.put(old[0], ids);
+                byNamePrefix.put(old[0], ids);
+            }
+            if (old[1] != null) {
+                long[] nickIds = without(byNicknamePrefix.get(old[1]), userId);
+                if (nickIds == null) byNicknamePrefix.remove(old[1]);
+                else byNicknamePrefix.put(old[1], nickIds);
+            }
+        }
+
+        private static long[] append(long[] ids, long id) {
+            if (ids == null) return new long[]{id};
+            long[] copy = Arrays.copyOf(ids, ids.length + 1);
+            copy[ids.length] = id;
+            return copy;
+        }
+
+        private static long[] without(long[] ids, long id) {
+            if (ids == null) return null;
+            long[] copy = new long[ids.length];
+            int n = 0;
+            for (long i : ids) {
+                if (i != id) copy[n++] = i;
+            }
+            return n == 0 ? null : Arrays.copyOf(copy, n);
+        }
+    }
+
+    private final ConcurrentHashMap<Long, ServerIndex> servers = new ConcurrentHashMap<>();
+
+    private ServerIndex index(Server server) {
+        ServerIndex index = servers.get(server.getId());
+        if (index != null) return index;
+        return servers.computeIfAbsent(server.getId(), id -> {
+            ServerIndex built = new ServerIndex();
+            for (User member : server.getMembers()) built.add(server, member);
+            return built;
+        });
+    }
+
+    /**
+     * A member whose user name equals {@code name} ignoring case, or null.
+     */
+    User findByName(Server server, String name) {
+        ServerIndex index = index(server);
+        long[] ids = index.byName.getOrDefault(CommandIndex.fold(name), NONE);
+        for (long id : ids) {
+            User user = server.getMemberById(id).orElse(null);
+            if (user != null && user.getName().equalsIgnoreCase(name)) return user;
+        }
+
+        Iterator<User> it = server.getMembersByNameIgnoreCase(name).iterator();
+        if (!it.hasNext()) return null;
+        User user = it.next();
+        index.add(server, user); // the index missed an update, repair it
+        return user;
+    }
+
+    /**
+     * Members whose name or nickname starts with {@code prefix}, ignoring case.
+     */
+    List<User> findByPrefix(Server server, String prefix, int limit) {
+        ServerIndex index = index(server);
+        String from = CommandIndex.fold(prefix);
+        String to = from + Character.MAX_VALUE;
+        Set<Long> ids = new LinkedHashSet<>();
+        collect(index.byNamePrefix.subMap(from, to), ids, limit);
+        collect(index.byNicknamePrefix.subMap(from, to), ids, limit);
+
+        List<User> users = new ArrayList<>(ids.size());
+        for (long id : ids) server.getMemberById(id).ifPresent(users::add);
+        return users;
+    }
+
+    private static void collect(Map<String, long[]> range, Collection<Long> ids, int limit) {
+        for (long[] matches : range.values()) {
+            for (long id : matches) {
+                if (ids.size() >= limit) return;
+                ids.add(id);
+            }
+        }
+    }
+
+    void registerListeners(DiscordApi api, List<ListenerManager<?>> listeners) {
+        listeners.add(api.addServerMemberJoinListener(event -> {
+            ServerIndex index = servers.get(event.getServer().getId());
+            if (index != null) index.add(event.getServer(), event.getUser());
+        }));
+        listeners.add(api.addServerMemberLeaveListener(event -> {
+            ServerIndex index = servers.get(event.getServer().getId());
+            if (index != null) index.remove(event.getUser().getId());
+        }));
+        listeners.add(api.addUserChangeNicknameListener(event -> {
+            ServerIndex index = servers.get(event.getServer().getId());
+            if (index != null) index.add(event.getUser().getId(), event.getUser().getName(), event.getNewNickname().orElse(null));
+        }));
+        listeners.add(api.addUserChangeNameListener(event -> {
+            long userId = event.getUser().getId();
+            for (ServerIndex index : servers.values()) {
+                index.rename(userId, event.getNewName());
+            }
+        }));
+        listeners.add(api.addServerLeaveListener(event -> servers.remove(event.getServer().getId())));
+    }
+}
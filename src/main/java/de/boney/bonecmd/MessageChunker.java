@@ -0,0 +1,81 @@
+package de.boney.bonecmd;
+
+import org.javacord.api.entity.message.embed.EmbedBuilder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Splits text into pieces Discord accepts as single messages or embeds, preferring line breaks as split points.
+ */
+final class MessageChunker {
+    static final int MAX_LENGTH = 2000;
+    static final int MAX_EMBED_TITLE = 256;
+    static final int MAX_EMBED_DESCRIPTION = 4096;
+    // title, description, fields and footer together
+    static final int MAX_EMBED_TOTAL = 6000;
+    // room left for the page footer
+    private static final int FOOTER_LENGTH = 32;
+
+    private MessageChunker() {
+    }
+
+    static List<String> split(CharSequence text) {
+        return split(text, MAX_LENGTH);
+    }
+
+    static List<String> split(CharSequence text, int maxLength) {
+        int length = text.length();
+        if (length == 0) return Collections.emptyList();
+        if (length <= maxLength) return Collections.singletonList(text.toString());
+        List<String> chunks = new ArrayList<>(length / maxLength + 1);
+        for (int start = 0; start < length; ) {
+            int end = chunkEnd(text, start, maxLength);
+            chunks.add(text.subSequence(start, end).toString());
+            start = nextStart(text, end);
+        }
+        return chunks;
+    }
+
+    /**
+     * Splits {@code description} into embeds titled {@code title}, numbered in the footer if there are several.
+     * A title longer than Discord allows is cut.
+     */
+    static List<EmbedBuilder> embeds(String title, CharSequence description) {
+        if (title.length() > MAX_EMBED_TITLE) title = title.substring(0, chunkEnd(title, 0, MAX_EMBED_TITLE));
+        int maxLength = Math.min(MAX_EMBED_DESCRIPTION, MAX_EMBED_TOTAL - title.length() - FOOTER_LENGTH);
+        List<String> pages = split(description, maxLength);
+        if (pages.size() <= 1) {
+            EmbedBuilder embed = new EmbedBuilder().setTitle(title);
+            if (!pages.isEmpty()) embed.setDescription(pages.get(0));
+            return Collections.singletonList(embed);
+        }
+        List<EmbedBuilder> embeds = new ArrayList<>(pages.size());
+        for (int i = 0; i < pages.size(); i++) {
+            embeds.add(new EmbedBuilder().setTitle(title).setDescription(pages.get(i)).setFooter("Page " + (i + 1) + "/" + pages.size()));
+        }
+        return embeds;
+    }
+
+    /**
+     * @return where the chunk beginning at {@code start} ends, exclusive
+     */
+    static int chunkEnd(CharSequence text, int start, int maxLength) {
+        int length = text.length();
+        if (length - start <= maxLength) return length;
+        int end = start + maxLength;
+        for (int i = end; i > start; i--) {
+            if (text.charAt(i) == '\n') return i;
+        }
+        // no line break, don't cut a surrogate pair in half
+        return Character.isHighSurrogate(text.charAt(end - 1)) ? end - 1 : end;
+    }
+
+    /**
+     * @return where the chunk after one ending at {@code end} begins, the line break it was split at is dropped
+     */
+    static int nextStart(CharSequence text, int end) {
+        return end < text.length() && text.charAt(end) == '\n' ? end + 1 : end;
+    }
+}
@@ -0,0 +1,18 @@
+package de.boney.bonecmd;
+
+/**
+ * Receives every measurement the dispatcher takes while metrics are enabled, e.g. to export them to a metrics library.
+ * Called on dispatch and worker threads, implementations must be fast and thread safe.
+ */
+public interface MetricsListener {
+    void onStage(String command, CommandMetrics.Stage stage, long nanos);
+
+    default void onError(String command, Throwable failure) {
+    }
+
+    default void onRejected(String command) {
+    }
+
+    default void onThrottled(String command) {
+    }
+}
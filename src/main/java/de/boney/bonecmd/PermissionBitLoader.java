@@ -0,0 +1,87 @@
+package de.boney.bonecmd;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Coalesces lookups of internal permission bits. Concurrent requests for the same member share one
+ * future, and requests arriving within the batch window are sent to the backing store as one call.
+ */
+final class PermissionBitLoader {
+    private final Function<Set<MemberKey>, CompletableFuture<Map<MemberKey, Long>>> loader;
+    private final long windowNanos;
+    private final int maxBatchSize;
+    private final ConcurrentHashMap<MemberKey, CompletableFuture<Long>> inFlight = new ConcurrentHashMap<>();
+    private List<MemberKey> batch = new ArrayList<>();
+
+    PermissionBitLoader(Function<Set<MemberKey>, CompletableFuture<Map<MemberKey, Long>>> loader, long windowNanos, int maxBatchSize) {
+        if (maxBatchSize <= 0) throw new IllegalArgumentException("maxBatchSize must be positive");
+        this.loader = loader;
+        this.windowNanos = windowNanos;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    CompletableFuture<Long> load(MemberKey key) {
+        CompletableFuture<Long> future = inFlight.get(key);
+        if (future != null) return future;
+        CompletableFuture<Long> created = new CompletableFuture<>();
+        future = inFlight.putIfAbsent(key, created);
+        if (future != null) return future;
+
+        List<MemberKey> full = null;
+        boolean first;
+        synchronized (this) {
+            batch.add(key);
+            first = batch.size() == 1;
+            if (batch.size() >= maxBatchSize) {
+                full = batch;
+                batch = new ArrayList<>();
+            }
+        }
+        if (full != null) {
+            send(full);
+        } else if (first) {
+            Schedulers.timer().schedule(this::flush, windowNanos, TimeUnit.NANOSECONDS);
+        }
+        return created;
+    }
+
+    private void flush() {
+        List<MemberKey> keys;
+        synchronized (this) {
+            if (batch.isEmpty()) return; // already sent because it filled up
+            keys = batch;
+            batch = new ArrayList<>();
+        }
+        send(keys);
+    }
+
+    private void send(List<MemberKey> keys) {
+        CompletableFuture<Map<MemberKey, Long>> result;
+        try {
+            result = loader.apply(new HashSet<>(keys));
+        } catch (RuntimeException e) {
+            result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+        }
+        result.whenComplete((bits, t) -> {
+            for (MemberKey key : keys) {
+                CompletableFuture<Long> future = inFlight.remove(key);
+                if (future == null) continue;
+                if (t != null) {
+                    future.completeExceptionally(t);
+                } else {
+                    Long value = bits == null ? null : bits.get(key);
+                    future.complete(value == null ? 0L : value);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,178 @@
+package de.boney.bonecmd;
+
+import org.javacord.api.DiscordApi;
+import org.javacord.api.entity.permission.PermissionType;
+import org.javacord.api.entity.server.Server;
+import org.javacord.api.entity.user.User;
+import org.javacord.api.util.event.ListenerManager;
+
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+/**
+ * Caches what a user is allowed to do on a server, so permission checks don't
+ * walk roles or query the internal permission bit supplier on every dispatch.
+ * Entries are dropped by role and member events, and expire after a time to live as a fallback.
+ */
+final class PermissionCache {
+    static final class Snapshot {
+        private final EnumSet<PermissionType> allowed;
+        private final boolean botOwner;
+        private final boolean serverOwner;
+        private volatile CompletableFuture<Long> bits;
+
+        Snapshot(Server server, User user) {
+            Collection<PermissionType> permissions = server.getAllowedPermissions(user);
+            this.allowed = permissions.isEmpty() ? EnumSet.noneOf(PermissionType.class) : EnumSet.copyOf(permissions);
+            this.botOwner = user.isBotOwner();
+            this.serverOwner = server.getOwner().equals(user);
+        }
+
+        boolean isBotOwner() {
+            return botOwner;
+        }
+
+        boolean isServerOwner() {
+            return serverOwner;
+        }
+
+        boolean allows(Collection<PermissionType> types) {
+            return allowed.containsAll(types);
+        }
+
+        /**
+         * @return everything permission checks look at, given the user's internal permission bits
+         */
+        Profile profile(long bits) {
+            return new Profile(allowed, botOwner, serverOwner, bits);
+        }
+
+        // loaded on first use, most commands don't need internal bits
+        CompletableFuture<Long> getBits(PermissionCache owner, Server server, User user, Executor executor) {
+            CompletableFuture<Long> f = bits;
+            if (f == null || f.isCompletedExceptionally()) {
+                synchronized (this) {
+                    f = bits;
+                    if (f == null || f.isCompletedExceptionally()) {
+                        bits = f = owner.loadBits(server, user, executor);
+                    }
+                }
+            }
+            return f;
+        }
+    }
+
+    /**
+     * Users with equal profiles pass and fail the same permission checks.
+     */
+    static final class Profile {
+        private final EnumSet<PermissionType> allowed;
+        private final boolean botOwner;
+        private final boolean serverOwner;
+        private final long bits;
+
+        Profile(EnumSet<PermissionType> allowed, boolean botOwner, boolean serverOwner, long bits) {
+            this.allowed = allowed;
+            this.botOwner = botOwner;
+            this.serverOwner = serverOwner;
+            this.bits = bits;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Profile)) return false;
+            Profile other = (Profile) o;
+            return botOwner == other.botOwner && serverOwner == other.serverOwner && bits == other.bits && allowed.equals(other.allowed);
+        }
+
+        @Override
+        public int hashCode() {
+            return ((allowed.hashCode() * 31 + Long.hashCode(bits)) * 31 + (botOwner ? 1 : 0)) * 31 + (serverOwner ? 1 : 0);
+        }
+    }
+
+    private volatile LruCache<MemberKey, Snapshot> cache = new LruCache<>(10_000, TimeUnit.MINUTES.toNanos(1));
+    private volatile BiFunction<Server, User, Long> bitSupplier;
+    private volatile PermissionBitLoader bitLoader;
+
+    void setBitSupplier(BiFunction<Server, User, Long> supplier) {
+        bitSupplier = supplier;
+        bitLoader = null;
+        invalidateAll();
+    }
+
+    void setBitLoader(PermissionBitLoader loader) {
+        bitLoader = loader;
+        bitSupplier = null;
+        invalidateAll();
+    }
+
+    boolean hasBitSource() {
+        return bitSupplier != null || bitLoader != null;
+    }
+
+    /**
+     * With an executor, a synchronous supplier runs there instead of on the calling thread.
+     */
+    private CompletableFuture<Long> loadBits(Server server, User user, Executor executor) {
+        PermissionBitLoader loader = bitLoader;
+        if (loader != null) return loader.load(new MemberKey(server.getId(), user.getId()));
+        BiFunction<Server, User, Long> supplier = bitSupplier;
+        if (supplier == null) return CompletableFuture.completedFuture(0L);
+        if (executor != null) return CompletableFuture.supplyAsync(() -> supplier.apply(server, user), executor);
+        CompletableFuture<Long> f = new CompletableFuture<>();
+        try {
+            f.complete(supplier.apply(server, user));
+        } catch (RuntimeException e) {
+            f.completeExceptionally(e);
+        }
+        return f;
+    }
+
+    void configure(int maxSize, long ttl, TimeUnit unit) {
+        cache = new LruCache<>(maxSize, unit.toNanos(ttl));
+    }
+
+    Snapshot get(Server server, User user) {
+        LruCache<MemberKey, Snapshot> c = cache;
+        MemberKey key = new MemberKey(server.getId(), user.getId());
+        Snapshot snapshot = c.get(key);
+        if (snapshot == null) {
+            snapshot = new Snapshot(server, user);
+            c.put(key, snapshot);
+        }
+        return snapshot;
+    }
+
+    void invalidate(long serverId, long userId) {
+        cache.remove(new MemberKey(serverId, userId));
+    }
+
+    void invalidate(long serverId) {
+        cache.removeIf(key -> key.serverId == serverId);
+    }
+
+    void invalidateAll() {
+        cache.clear();
+    }
+
+    CacheStats stats() {
+        return cache.stats();
+    }
+
+    void registerListeners(DiscordApi api, List<ListenerManager<?>> listeners) {
+        listeners.add(api.addUserRoleAddListener(event -> invalidate(event.getServer().getId(), event.getUser().getId())));
+        listeners.add(api.addUserRoleRemoveListener(event -> invalidate(event.getServer().getId(), event.getUser().getId())));
+        listeners.add(api.addServerMemberLeaveListener(event -> invalidate(event.getServer().getId(), event.getUser().getId())));
+        listeners.add(api.addRoleChangePermissionsListener(event -> invalidate(event.getServer().getId())));
+        listeners.add(api.addRoleDeleteListener(event -> invalidate(event.getServer().getId())));
+        listeners.add(api.addServerChangeOwnerListener(event -> invalidate(event.getServer().getId())));
+        listeners.add(api.addServerLeaveListener(event -> invalidate(event.getServer().getId())));
+    }
+}
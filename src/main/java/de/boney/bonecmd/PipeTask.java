@@ -0,0 +1,15 @@
+package de.boney.bonecmd;
+
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * A task that can take part in a pipe like {@code !a x | !b | !c}. It reads the lines written by the
+ * previous stage from {@code input} and writes its own result line by line to {@code output}.
+ * Stages run at the same time, {@code input} waits for lines the previous stage hasn't written yet.
+ * Only the last stage's output is sent to the channel. Output must be written before the task returns.
+ */
+@FunctionalInterface
+public interface PipeTask {
+    void execute(Arguments args, Stream<String> input, Consumer<String> output);
+}
@@ -0,0 +1,279 @@
+package de.boney.bonecmd;
+
+import org.javacord.api.entity.channel.TextChannel;
+import org.javacord.api.entity.message.Message;
+import org.javacord.api.entity.message.embed.EmbedBuilder;
+import org.javacord.api.entity.server.Server;
+import org.javacord.api.entity.user.User;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * The stages of a pipe, run as a single job. All stages are checked and parsed before any of them runs,
+ * then they run at the same time, each one reading the lines of the one before through a {@link LinePipe}.
+ * Only the last stage replies to the channel. A failing stage ends the pipe, the first failure is replied.
+ * The pipe as a whole runs under the strictest lane or execution policy among its stages.
+ * The stages before the last take threads from the job's pool, the pipe is busy if they can't get one.
+ */
+final class PipelineJob implements Runnable {
+    // how many lines a stage may get ahead of the next one
+    private static final int PIPE_CAPACITY = 256;
+    // how long the stages before the last may wait for a thread
+    private static final long START_TIMEOUT_MILLIS = 1000;
+
+    static final class Stage {
+        final Command command;
+        final String content;
+        final int argsStart;
+
+        Stage(Command command, String content, int argsStart) {
+            this.command = command;
+            this.content = content;
+            this.argsStart = argsStart;
+        }
+    }
+
+    // text replies of a stage that isn't the last become lines of its output
+    private static final class LineSink implements ReplySink {
+        private final LinePipe lines;
+        private final TextChannel channel;
+
+        LineSink(LinePipe lines, TextChannel channel) {
+            this.lines = lines;
+            this.channel = channel;
+        }
+
+        @Override
+        public CompletableFuture<Message> send(String text) {
+            for (String line : text.split("\n")) lines.write(line);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public CompletableFuture<Message> send(EmbedBuilder embed) {
+            return channel.sendMessage(embed);
+        }
+    }
+
+    // a stage before the last, it runs unless it's cancelled before a thread picks it up
+    private final class Upstream implements Runnable {
+        final Command command;
+        private final Arguments args;
+        private final LinePipe input;
+        private final LinePipe output;
+        private final CountDownLatch settled;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        private final CountDownLatch done = new CountDownLatch(1);
+        volatile boolean started;
+
+        Upstream(Command command, Arguments args, LinePipe input, LinePipe output, CountDownLatch settled) {
+            this.command = command;
+            this.args = args;
+            this.input = input;
+            this.output = output;
+            this.settled = settled;
+        }
+
+        @Override
+        public void run() {
+            if (!claimed.compareAndSet(false, true)) return;
+            started = true;
+            settled.countDown();
+            try {
+                runStage(command, args, input, output::write, output);
+            } finally {
+                done.countDown();
+            }
+        }
+
+        // a stage that never runs closes its ends of the pipes so its neighbours stop
+        void cancel() {
+            if (!claimed.compareAndSet(false, true)) return;
+            if (input != null) input.closeReader();
+            output.closeWriter(true);
+            settled.countDown();
+            done.countDown();
+        }
+
+        void join() {
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private final Shard shard;
+    private final Server server;
+    private final User user;
+    private final TextChannel channel;
+    private final List<Stage> stages;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    PipelineJob(Shard shard, Server server, User user, TextChannel channel, List<Stage> stages) {
+        this.shard = shard;
+        this.server = server;
+        this.user = user;
+        this.channel = channel;
+        this.stages = stages;
+    }
+
+    List<Command> commands() {
+        List<Command> commands = new ArrayList<>(stages.size());
+        for (Stage stage : stages) commands.add(stage.command);
+        return commands;
+    }
+
+    @Override
+    public void run() {
+        CollectingReplySink out = new CollectingReplySink(channel);
+        try {
+            List<Arguments> prepared = prepare(out);
+            if (prepared == null) return;
+            int last = stages.size() - 1;
+            Executor pool = stagePool();
+            CountDownLatch settled = new CountDownLatch(last);
+            List<Upstream> upstream = new ArrayList<>(last);
+            LinePipe input = null;
+            for (int i = 0; i < last; i++) {
+                LinePipe output = new LinePipe(PIPE_CAPACITY);
+                Arguments args = prepared.get(i);
+                args.replyTo(new LineSink(output, channel));
+                Upstream stage = new Upstream(stages.get(i).command, args, input, output, settled);
+                upstream.add(stage);
+                try {
+                    pool.execute(stage);
+                } catch (RejectedExecutionException e) {
+                    stage.cancel();
+                }
+                input = output;
+            }
+            Command busy = awaitStart(upstream, settled);
+            Arguments args = prepared.get(last);
+            args.replyTo(out);
+            if (busy == null) {
+                runStage(stages.get(last).command, args, input, out::send, null);
+            } else if (input != null) {
+                input.closeReader();
+            }
+            // the stages before have given up or finished, wait for their failures
+            for (Upstream stage : upstream) stage.join();
+            if (busy != null) {
+                shard.registry.recordRejection(busy);
+                out.send(CommandRegistry.BUSY);
+                return;
+            }
+            Throwable t = failure.get();
+            if (t != null) out.send(Command.failureReply(t));
+        } finally {
+            out.close();
+        }
+    }
+
+    // stages before the last share the job's pool, the slow pool if any of them is time consuming
+    private Executor stagePool() {
+        for (Stage stage : stages) {
+            if (stage.command.isTimeConsuming()) return shard.slowPool();
+        }
+        return shard.executor;
+    }
+
+    /**
+     * Waits for every stage before the last to start. A stage still queued behind other jobs may wait
+     * for this job's thread, so after a while the ones that haven't started are cancelled.
+     *
+     * @return a command whose stage didn't start, null if all of them did
+     */
+    private Command awaitStart(List<Upstream> upstream, CountDownLatch settled) {
+        try {
+            settled.await(START_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Command busy = null;
+        for (Upstream stage : upstream) {
+            stage.cancel();
+            if (!stage.started && busy == null) busy = stage.command;
+        }
+        return busy;
+    }
+
+    /**
+     * Checks every stage's permissions and rate limits and parses its arguments.
+     *
+     * @return the arguments of every stage, null if one of them can't run
+     */
+    private List<Arguments> prepare(CollectingReplySink out) {
+        CommandRegistry registry = shard.registry;
+        PermissionCache.Snapshot snapshot = null;
+        List<Arguments> prepared = new ArrayList<>(stages.size());
+        for (Stage stage : stages) {
+            Command cmd = stage.command;
+            boolean timed = registry.isMetricsEnabled();
+            long permissionStart = timed ? System.nanoTime() : 0;
+            String denied = null;
+            if (cmd.needsPermissionData(shard.permissions)) {
+                try {
+                    if (snapshot == null) snapshot = shard.permissions.get(server, user);
+                    if (!cmd.checkPermissions(shard.permissions, snapshot, server, user)) denied = "You don't have permission.";
+                } catch (RuntimeException e) {
+                    denied = "Error:\nCould not check your permissions.";
+                }
+            }
+            if (timed) registry.record(cmd, CommandMetrics.Stage.PERMISSION, permissionStart);
+            if (denied != null) {
+                out.send(denied);
+                return null;
+            }
+            if (!registry.tryAcquire(cmd, server, user, channel, false)) return null;
+            String[] err = new String[]{""};
+            long parseStart = timed ? System.nanoTime() : 0;
+            Arguments args = cmd.getArguments(shard, server, channel, user, stage.content, stage.argsStart, err);
+            if (timed) registry.record(cmd, CommandMetrics.Stage.PARSE, parseStart);
+            if (!err[0].equals("")) {
+                out.send("Error:\n" + err[0]);
+                return null;
+            }
+            prepared.add(args);
+        }
+        return prepared;
+    }
+
+    /**
+     * Runs one stage and closes its ends of the pipes, whether it read its input or not.
+     */
+    private void runStage(Command cmd, Arguments args, LinePipe input, Consumer<String> output, LinePipe outputPipe) {
+        CommandRegistry registry = shard.registry;
+        boolean timed = registry.isMetricsEnabled();
+        long executionStart = timed ? System.nanoTime() : 0;
+        boolean finished = false;
+        try {
+            cmd.execute(registry.watchdog, args, input == null ? Stream.<String>empty() : input.lines(), output);
+            finished = true;
+        } catch (RuntimeException e) {
+            // a stage stopped by its neighbour giving up isn't a failure of its own
+            if (!(e instanceof LinePipe.Closed) && !(e.getCause() instanceof LinePipe.Closed)) fail(cmd, e);
+        } finally {
+            if (timed) registry.record(cmd, CommandMetrics.Stage.EXECUTION, executionStart);
+            if (input != null) input.closeReader();
+            if (outputPipe != null) outputPipe.closeWriter(!finished);
+        }
+    }
+
+    private void fail(Command cmd, RuntimeException e) {
+        failure.compareAndSet(null, e);
+        if (shard.registry.isMetricsEnabled()) shard.registry.recordError(cmd, e);
+        CommandRegistry.report(e);
+    }
+}
@@ -0,0 +1,93 @@
+package de.boney.bonecmd;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Command prefixes, a default one plus optional per-server overrides.
+ * Keeps a bitmap of every character a prefix can start with, so ordinary chat
+ * can be turned away by looking at a single character of the raw content.
+ */
+final class Prefixes {
+    private static final class Snapshot {
+        final char[] defaultPrefix;
+        final LongMap<char[]> perServer;
+        final long[] firstChars = new long[1024];
+
+        Snapshot(char[] defaultPrefix, LongMap<char[]> perServer) {
+            this.defaultPrefix = defaultPrefix;
+            this.perServer = perServer;
+            mark(defaultPrefix);
+            perServer.forEachValue(this::mark);
+        }
+
+        private void mark(char[] prefix) {
+            char c = prefix[0];
+            firstChars[c >>> 6] |= 1L << c;
+        }
+
+        boolean mayStartWith(char c) {
+            return (firstChars[c >>> 6] & 1L << c) != 0;
+        }
+    }
+
+    private volatile Snapshot snapshot = new Snapshot(new char[]{'!'}, LongMap.empty());
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder passed = new LongAdder();
+
+    synchronized void setDefault(String prefix) {
+        snapshot = new Snapshot(check(prefix), snapshot.perServer);
+    }
+
+    synchronized void set(long serverId, String prefix) {
+        snapshot = new Snapshot(snapshot.defaultPrefix, snapshot.perServer.with(serverId, check(prefix)));
+    }
+
+    synchronized void remove(long serverId) {
+        snapshot = new Snapshot(snapshot.defaultPrefix, snapshot.perServer.without(serverId));
+    }
+
+    String get(long serverId) {
+        Snapshot s = snapshot;
+        char[] prefix = s.perServer.get(serverId);
+        return new String(prefix != null ? prefix : s.defaultPrefix);
+    }
+
+    private static char[] check(String prefix) {
+        if (prefix == null || prefix.isEmpty()) throw new IllegalArgumentException("Prefix must not be empty");
+        return prefix.toCharArray();
+    }
+
+    /**
+     * Decides from the raw content alone whether the message cannot possibly be a command.
+     */
+    boolean rejects(String content) {
+        if (content.isEmpty() || !snapshot.mayStartWith(content.charAt(0))) {
+            rejected.increment();
+            return true;
+        }
+        passed.increment();
+        return false;
+    }
+
+    /**
+     * @return the length of the prefix {@code content} starts with, or -1 if it isn't a command on this server
+     */
+    int match(String content, long serverId) {
+        Snapshot s = snapshot;
+        char[] prefix = s.perServer.get(serverId);
+        if (prefix == null) prefix = s.defaultPrefix;
+        if (content.length() < prefix.length) return -1;
+        for (int i = 0; i < prefix.length; i++) {
+            if (content.charAt(i) != prefix[i]) return -1;
+        }
+        return prefix.length;
+    }
+
+    long getRejected() {
+        return rejected.sum();
+    }
+
+    long getPassed() {
+        return passed.sum();
+    }
+}
@@ -0,0 +1,139 @@
+package de.boney.bonecmd;
+
+import java.lang.ref.WeakReference;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token buckets kept as a single theoretical arrival time per key (GCRA). Keys are spread over
+ * lock striped open addressing tables of primitive longs, so acquiring neither boxes nor allocates.
+ * A bucket that has fully refilled carries no information, a timer drops those periodically.
+ */
+final class RateLimiter {
+    private static final int STRIPES = 16;
+
+    /**
+     * One lock's share of the buckets, at most half full.
+     */
+    private static final class Stripe {
+        private static final int MIN_CAPACITY = 8;
+        // marks a free slot, no arrival time gets there
+        private static final long FREE = Long.MIN_VALUE;
+
+        // guarded by this
+        private long[] keys = new long[MIN_CAPACITY];
+        private long[] tats = newTats(MIN_CAPACITY);
+        private int size;
+
+        synchronized boolean tryAcquire(long key, long hash, long now, long interval, long tolerance) {
+            int mask = keys.length - 1;
+            int i = slot(hash, mask);
+            for (; tats[i] != FREE; i = (i + 1) & mask) {
+                if (keys[i] != key) continue;
+                long tat = tats[i];
+                if (now - (tat - tolerance) < 0) return false;
+                tats[i] = (now - tat > 0 ? now : tat) + interval;
+                return true;
+            }
+            keys[i] = key;
+            tats[i] = now + interval;
+            if (++size * 2 > keys.length) rehash(keys.length * 2, now, false);
+            return true;
+        }
+
+        synchronized void sweep(long now) {
+            int live = 0;
+            for (long tat : tats) {
+                if (tat != FREE && now - tat < 0) live++;
+            }
+            if (live == size) return;
+            int capacity = MIN_CAPACITY;
+            while (live * 2 > capacity) capacity *= 2;
+            rehash(capacity, now, true);
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        private void rehash(int capacity, long now, boolean dropRefilled) {
+            long[] oldKeys = keys;
+            long[] oldTats = tats;
+            keys = new long[capacity];
+            tats = newTats(capacity);
+            size = 0;
+            int mask = capacity - 1;
+            for (int j = 0; j < oldTats.length; j++) {
+                long tat = oldTats[j];
+                if (tat == FREE || dropRefilled && now - tat >= 0) continue;
+                int i = slot(hash(oldKeys[j]), mask);
+                while (tats[i] != FREE) i = (i + 1) & mask;
+                keys[i] = oldKeys[j];
+                tats[i] = tat;
+                size++;
+            }
+        }
+
+        private static long[] newTats(int capacity) {
+            long[] tats = new long[capacity];
+            Arrays.fill(tats, FREE);
+            return tats;
+        }
+
+        private static int slot(long hash, int mask) {
+            return (int) (hash ^ (hash >>> 32)) & mask;
+        }
+    }
+
+    final Command.Scope scope;
+    private final long interval;
+    private final long tolerance;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    RateLimiter(int permits, Duration per, Command.Scope scope) {
+        if (permits <= 0) throw new IllegalArgumentException("permits must be positive");
+        if (per.isNegative() || per.isZero()) throw new IllegalArgumentException("per must be positive");
+        this.scope = scope;
+        this.interval = Math.max(1, per.toNanos() / permits);
+        this.tolerance = interval * (permits - 1);
+        for (int i = 0; i < STRIPES; i++) stripes[i] = new Stripe();
+        scheduleSweep(this, Math.min(Math.max(per.toNanos(), TimeUnit.SECONDS.toNanos(1)), TimeUnit.MINUTES.toNanos(1)));
+    }
+
+    boolean tryAcquire(long key) {
+        return tryAcquire(key, System.nanoTime());
+    }
+
+    boolean tryAcquire(long key, long now) {
+        long hash = hash(key);
+        // the top bits pick the stripe, the table inside it mostly uses the others
+        return stripes[(int) (hash >>> 60)].tryAcquire(key, hash, now, interval, tolerance);
+    }
+
+    int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) size += stripe.size();
+        return size;
+    }
+
+    void sweep(long now) {
+        for (Stripe stripe : stripes) stripe.sweep(now);
+    }
+
+    private static long hash(long key) {
+        return key * 0x9E3779B97F4A7C15L;
+    }
+
+    // the timer only holds the limiter weakly, so a discarded command doesn't keep sweeping forever
+    private static void scheduleSweep(RateLimiter limiter, long period) {
+        WeakReference<RateLimiter> ref = new WeakReference<>(limiter);
+        ScheduledFuture<?>[] handle = new ScheduledFuture<?>[1];
+        handle[0] = Schedulers.timer().scheduleWithFixedDelay(() -> {
+            RateLimiter l = ref.get();
+            if (l == null) handle[0].cancel(false);
+            else l.sweep(System.nanoTime());
+        }, period, period, TimeUnit.NANOSECONDS);
+    }
+}
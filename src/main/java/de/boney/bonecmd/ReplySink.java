@@ -0,0 +1,30 @@
+package de.boney.bonecmd;
+
+import org.javacord.api.entity.channel.TextChannel;
+import org.javacord.api.entity.message.Message;
+import org.javacord.api.entity.message.embed.EmbedBuilder;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Where a command's replies go. Normally straight to the invoking channel.
+ */
+interface ReplySink {
+    CompletableFuture<Message> send(String text);
+
+    CompletableFuture<Message> send(EmbedBuilder embed);
+
+    static ReplySink of(TextChannel channel) {
+        return new ReplySink() {
+            @Override
+            public CompletableFuture<Message> send(String text) {
+                return channel.sendMessage(text);
+            }
+
+            @Override
+            public CompletableFuture<Message> send(EmbedBuilder embed) {
+                return channel.sendMessage(embed);
+            }
+        };
+    }
+}
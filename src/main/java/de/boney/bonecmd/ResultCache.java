@@ -0,0 +1,105 @@
+package de.boney.bonecmd;
+
+import org.javacord.api.entity.channel.TextChannel;
+import org.javacord.api.entity.message.Message;
+import org.javacord.api.entity.message.embed.EmbedBuilder;
+import org.javacord.api.entity.server.Server;
+import org.javacord.api.entity.user.User;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Remembers the text replies of a command by its parsed arguments and scope,
+ * so a repeated invocation is answered without running the task.
+ */
+final class ResultCache {
+    static final class Key {
+        final long scopeId;
+        final Object[] values;
+        private final int hash;
+
+        Key(long scopeId, Object[] values) {
+            this.scopeId = scopeId;
+            this.values = values;
+            this.hash = Long.hashCode(scopeId) * 31 + Arrays.hashCode(values);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return scopeId == other.scopeId && Arrays.equals(values, other.values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Passes replies on and keeps a copy of the text. Results with embeds aren't cached.
+     */
+    static final class Recorder implements ReplySink {
+        private final ReplySink delegate;
+        private final List<String> replies = Collections.synchronizedList(new ArrayList<>());
+        private volatile boolean embeds;
+
+        Recorder(ReplySink delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public CompletableFuture<Message> send(String text) {
+            replies.add(text);
+            return delegate.send(text);
+        }
+
+        @Override
+        public CompletableFuture<Message> send(EmbedBuilder embed) {
+            embeds = true;
+            return delegate.send(embed);
+        }
+    }
+
+    private final Command.Scope scope;
+    private final LruCache<Key, List<String>> cache;
+
+    ResultCache(long ttlNanos, Command.Scope scope, int maxSize) {
+        this.scope = scope;
+        this.cache = new LruCache<>(maxSize, ttlNanos);
+    }
+
+    Key key(Server server, User user, TextChannel channel, Arguments args) {
+        return new Key(scope.id(server, user, channel), args.normalizedValues());
+    }
+
+    /**
+     * @return the cached replies, or null
+     */
+    List<String> get(Key key) {
+        return cache.get(key);
+    }
+
+    void put(Key key, Recorder recorder) {
+        if (recorder.embeds) return;
+        List<String> replies;
+        synchronized (recorder.replies) {
+            replies = new ArrayList<>(recorder.replies);
+        }
+        cache.put(key, Collections.unmodifiableList(replies));
+    }
+
+    void invalidate() {
+        cache.clear();
+    }
+
+    CacheStats stats() {
+        return cache.stats();
+    }
+}
@@ -0,0 +1,34 @@
+package de.boney.bonecmd;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+/**
+ * Timer thread for the framework's own delayed work. Tasks scheduled here must be short,
+ * anything substantial is handed off to an executor.
+ */
+final class Schedulers {
+    private static volatile ScheduledExecutorService timer;
+
+    private Schedulers() {
+    }
+
+    static ScheduledExecutorService timer() {
+        ScheduledExecutorService t = timer;
+        if (t == null) {
+            synchronized (Schedulers.class) {
+                t = timer;
+                if (t == null) {
+                    ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+                        Thread thread = new Thread(r, "BoneCmd-timer");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    executor.setRemoveOnCancelPolicy(true);
+                    timer = t = executor;
+                }
+            }
+        }
+        return t;
+    }
+}
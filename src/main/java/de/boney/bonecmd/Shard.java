@@ -0,0 +1,121 @@
+package de.boney.bonecmd;
+
+import org.javacord.api.DiscordApi;
+import org.javacord.api.util.event.ListenerManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * What a registry keeps per {@link DiscordApi}: the permissions and member names of its servers,
+ * its lanes, its pool for time consuming commands and the executors enforcing execution policies.
+ * Nothing here is shared with other shards, so a busy shard can't starve or evict the others.
+ */
+final class Shard {
+    final CommandRegistry registry;
+    final DiscordApi api;
+    final ExecutorService executor;
+    final PermissionCache permissions = new PermissionCache();
+    final MemberNameIndex memberNames = new MemberNameIndex();
+    // by the pool they run on, a macro or pipe may take a command to the slow pool that doesn't go there on its own
+    private final ConcurrentHashMap<Command, CommandExecutor> executors = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Command, CommandExecutor> slowExecutors = new ConcurrentHashMap<>();
+    // guarded by the registry
+    private final List<ListenerManager<?>> listeners = new ArrayList<>();
+    private volatile Lanes lanes;
+    private volatile ThreadPoolExecutor slowPool;
+
+    Shard(CommandRegistry registry, DiscordApi api) {
+        this.registry = registry;
+        this.api = api;
+        this.executor = api.getThreadPool().getExecutorService();
+    }
+
+    void listen() {
+        listeners.add(api.addMessageCreateListener(event -> registry.handleMessage(this, event)));
+        permissions.registerListeners(api, listeners);
+        memberNames.registerListeners(api, listeners);
+    }
+
+    /**
+     * Stops listening and lets the threads of the slow pool and of execution policies with their own pool die.
+     * Queued tasks still run.
+     */
+    void close() {
+        for (ListenerManager<?> listener : listeners) listener.remove();
+        listeners.clear();
+        ThreadPoolExecutor p = slowPool;
+        if (p != null) p.shutdown();
+        for (Map.Entry<Command, CommandExecutor> e : executors.entrySet()) retire(e.getKey(), e.getValue());
+        for (Map.Entry<Command, CommandExecutor> e : slowExecutors.entrySet()) retire(e.getKey(), e.getValue());
+    }
+
+    private static void retire(Command cmd, CommandExecutor executor) {
+        executor.shutdown();
+        cmd.forgetExecutor(executor);
+    }
+
+    Lanes lanes() {
+        Lanes l = lanes;
+        if (l == null) {
+            synchronized (this) {
+                l = lanes;
+                if (l == null) lanes = l = new Lanes(registry.getLaneCount(), executor);
+            }
+        }
+        return l;
+    }
+
+    List<LaneStats> laneStats() {
+        Lanes l = lanes;
+        return l == null ? Collections.<LaneStats>emptyList() : l.stats();
+    }
+
+    Executor slowPool() {
+        ThreadPoolExecutor p = slowPool;
+        if (p == null) {
+            synchronized (this) {
+                p = slowPool;
+                if (p == null) {
+                    int threads = registry.getSlowPoolThreads();
+                    int queueCapacity = registry.getSlowPoolQueueCapacity();
+                    AtomicInteger counter = new AtomicInteger();
+                    BlockingQueue<Runnable> queue = queueCapacity == 0 ? new SynchronousQueue<>() : new ArrayBlockingQueue<>(queueCapacity);
+                    p = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, queue, r -> {
+                        Thread thread = new Thread(r, "BoneCmd-slow-" + counter.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    p.allowCoreThreadTimeOut(true);
+                    slowPool = p;
+                }
+            }
+        }
+        return p;
+    }
+
+    /**
+     * @param slow whether the job belongs on the slow pool
+     * @return the executor enforcing {@code cmd}'s execution policy on this shard, null if it has none
+     */
+    CommandExecutor commandExecutor(Command cmd, boolean slow) {
+        ExecutionPolicy policy = cmd.getExecutionPolicy();
+        if (policy == null) return null;
+        // a policy with a pool of its own runs everything there
+        boolean onSlowPool = slow && policy.pool == ExecutionPolicy.Pool.SHARED;
+        ConcurrentHashMap<Command, CommandExecutor> byCommand = onSlowPool ? slowExecutors : executors;
+        CommandExecutor e = byCommand.get(cmd);
+        return e != null ? e : byCommand.computeIfAbsent(cmd, c -> c.newExecutor(onSlowPool ? slowPool() : executor));
+    }
+}
@@ -0,0 +1,54 @@
+package de.boney.bonecmd;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A task the watchdog caught running longer than it should, with where it was at the time.
+ */
+public final class StalledTask {
+    private final String command;
+    private final String threadName;
+    private final long runningNanos;
+    private final StackTraceElement[] stackTrace;
+    private final boolean interrupted;
+
+    StalledTask(String command, String threadName, long runningNanos, StackTraceElement[] stackTrace, boolean interrupted) {
+        this.command = command;
+        this.threadName = threadName;
+        this.runningNanos = runningNanos;
+        this.stackTrace = stackTrace;
+        this.interrupted = interrupted;
+    }
+
+    public String getCommand() {
+        return command;
+    }
+
+    public String getThreadName() {
+        return threadName;
+    }
+
+    /**
+     * @return how long the task had been running when it was caught
+     */
+    public long getRunningTime(TimeUnit unit) {
+        return unit.convert(runningNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public StackTraceElement[] getStackTrace() {
+        return stackTrace.clone();
+    }
+
+    public boolean wasInterrupted() {
+        return interrupted;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(command).append(" running for ").append(getRunningTime(TimeUnit.MILLISECONDS)).append("ms on ").append(threadName);
+        if (interrupted) sb.append(", interrupted");
+        for (StackTraceElement e : stackTrace) sb.append("\n\tat ").append(e);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,134 @@
+package de.boney.bonecmd;
+
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Token boundaries of a message, stored as offsets into the original string.
+ * A token is either a double quoted run (quotes excluded) or a run of non-whitespace.
+ * Instances are reused per thread, so nothing is allocated until a value is materialized.
+ */
+final class Tokens {
+    private static final ThreadLocal<Tokens> LOCAL = ThreadLocal.withInitial(Tokens::new);
+
+    private String source;
+    private int[] starts = new int[8];
+    private int[] ends = new int[8];
+    private boolean[] quoted = new boolean[8];
+    private int count;
+    private boolean inUse;
+
+    private Tokens() {
+    }
+
+    /**
+     * Tokenizes {@code source} starting at {@code from}, skipping the first {@code skip} tokens.
+     * The result must be handed back with {@link #release()}.
+     */
+    static Tokens acquire(String source, int from, int skip) {
+        Tokens tokens = LOCAL.get();
+        if (tokens.inUse) tokens = new Tokens(); // nested use on the same thread
+        tokens.inUse = true;
+        tokens.scan(source, from, skip);
+        return tokens;
+    }
+
+    void release() {
+        source = null;
+        count = 0;
+        inUse = false;
+    }
+
+    static List<String> tokenize(String source) {
+        return tokenize(source, 0, 1);
+    }
+
+    static List<String> tokenize(String source, int from, int skip) {
+        Tokens tokens = acquire(source, from, skip);
+        try {
+            List<String> list = new ArrayList<>(tokens.count);
+            for (int i = 0; i < tokens.count; i++) list.add(tokens.string(i));
+            return list;
+        } finally {
+            tokens.release();
+        }
+    }
+
+    private void scan(String s, int from, int skip) {
+        source = s;
+        count = 0;
+        int n = s.length();
+        int pos = from;
+        while (true) {
+            while (pos < n && isSpace(s.charAt(pos))) pos++;
+            if (pos == n) return;
+
+            int start, end, next;
+            boolean q;
+            int close = s.charAt(pos) == '"' ? s.indexOf('"', pos + 1) : -1;
+            if (close >= 0) {
+                start = pos + 1;
+                end = close;
+                next = close + 1;
+                q = true;
+            } else {
+                // an unmatched quote is just part of a word
+                start = pos;
+                end = pos;
+                while (end < n && !isSpace(s.charAt(end))) end++;
+                next = end;
+                q = false;
+            }
+            pos = next;
+
+            if (skip > 0) {
+                skip--;
+                continue;
+            }
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+                quoted = Arrays.copyOf(quoted, count * 2);
+            }
+            starts[count] = start;
+            ends[count] = end;
+            quoted[count] = q;
+            count++;
+        }
+    }
+
+    // same set as the regex \s
+    static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    String source() {
+        return source;
+    }
+
+    int size() {
+        return count;
+    }
+
+    int start(int i) {
+        return starts[i];
+    }
+
+    int end(int i) {
+        return ends[i];
+    }
+
+    boolean quoted(int i) {
+        return quoted[i];
+    }
+
+    CharSequence get(int i) {
+        return CharBuffer.wrap(source, starts[i], ends[i]);
+    }
+
+    String string(int i) {
+        return source.substring(starts[i], ends[i]);
+    }
+}
@@ -0,0 +1,116 @@
+package de.boney.bonecmd;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Watches running tasks and records the stack of those that run past their threshold,
+ * optionally interrupting them. Each task is reported once.
+ */
+final class Watchdog {
+    private static final long SCAN_PERIOD_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+    private static final int MAX_REPORTS = 32;
+
+    static final class Watch {
+        final Thread thread;
+        final String command;
+        final long startedAt;
+        final long deadline;
+        boolean reported;
+        // guarded by this, so a finished task's thread isn't interrupted while it runs something else
+        private boolean done;
+        private boolean interrupted;
+
+        Watch(Thread thread, String command, long startedAt, long deadline) {
+            this.thread = thread;
+            this.command = command;
+            this.startedAt = startedAt;
+            this.deadline = deadline;
+        }
+    }
+
+    private final Set<Watch> running = ConcurrentHashMap.newKeySet();
+    private final ArrayDeque<StalledTask> reports = new ArrayDeque<>();
+    private final LongAdder stalled = new LongAdder();
+    private volatile long defaultThresholdNanos;
+    private volatile boolean interrupt;
+    private volatile boolean scanning;
+
+    void configure(long defaultThresholdNanos, boolean interrupt) {
+        this.defaultThresholdNanos = defaultThresholdNanos;
+        this.interrupt = interrupt;
+    }
+
+    /**
+     * Starts watching the current thread.
+     *
+     * @param thresholdNanos how long the task may run, 0 for the default
+     * @return the watch to stop, or null if the task isn't watched
+     */
+    Watch start(String command, long thresholdNanos) {
+        long threshold = thresholdNanos > 0 ? thresholdNanos : defaultThresholdNanos;
+        if (threshold <= 0) return null;
+        if (!scanning) startScanning();
+        long now = System.nanoTime();
+        Watch watch = new Watch(Thread.currentThread(), command, now, now + threshold);
+        running.add(watch);
+        return watch;
+    }
+
+    void stop(Watch watch) {
+        if (watch == null) return;
+        running.remove(watch);
+        boolean interrupted;
+        synchronized (watch) {
+            watch.done = true;
+            interrupted = watch.interrupted;
+        }
+        // don't leak our interrupt into whatever the pool thread runs next
+        if (interrupted) Thread.interrupted();
+    }
+
+    private synchronized void startScanning() {
+        if (scanning) return;
+        Schedulers.timer().scheduleWithFixedDelay(this::scan, SCAN_PERIOD_NANOS, SCAN_PERIOD_NANOS, TimeUnit.NANOSECONDS);
+        scanning = true;
+    }
+
+    void scan() {
+        long now = System.nanoTime();
+        for (Watch watch : running) {
+            if (watch.reported || now - watch.deadline < 0) continue;
+            watch.reported = true;
+            StackTraceElement[] stack = watch.thread.getStackTrace();
+            boolean interrupted = false;
+            if (interrupt) {
+                synchronized (watch) {
+                    if (!watch.done) {
+                        watch.interrupted = interrupted = true;
+                        watch.thread.interrupt();
+                    }
+                }
+            }
+            stalled.increment();
+            StalledTask report = new StalledTask(watch.command, watch.thread.getName(), now - watch.startedAt, stack, interrupted);
+            synchronized (reports) {
+                if (reports.size() == MAX_REPORTS) reports.removeFirst();
+                reports.addLast(report);
+            }
+        }
+    }
+
+    List<StalledTask> reports() {
+        synchronized (reports) {
+            return new ArrayList<>(reports);
+        }
+    }
+
+    long stalledCount() {
+        return stalled.sum();
+    }
+}